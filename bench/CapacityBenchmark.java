@@ -0,0 +1,111 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+/* A list of millions of tasks with little heap for them: loads a binary file of generated tasks, changes the list,
+   lists it, writes its snapshot and restores it, and reports the time and the heap after each step.
+   Run it from an empty directory, as the manager keeps its list in todo-list.json there.
+   Usage: java CapacityBenchmark [tasks] [memory]
+ */
+public class CapacityBenchmark {
+    private static final int CHANGES = 10000;
+    private static final PrintStream NOWHERE = new PrintStream(OutputStream.nullOutputStream());
+
+    /* The tasks are generated while they are written, so the file may be larger than the heap */
+    private static Iterable<Task> generate(int number) {
+        return () -> new Iterator<>() {
+            private final Random rnd = new Random(42);
+            private int id = 0;
+
+            @Override
+            public boolean hasNext() {
+                return id < number;
+            }
+
+            @Override
+            public Task next() {
+                Task task = new Task(++id);
+                task.setTitle("task " + rnd.nextInt(1000));
+                task.setDetails("details of the task number " + id);
+                task.setDeadlineMillis(1_500_000_000_000L + rnd.nextInt(1_000_000_000) * 1000L);
+                task.setDone(rnd.nextBoolean());
+                return task;
+            }
+        };
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long start;
+
+    private static void report(final String step, TaskManager manager) {
+        final long time = System.nanoTime() - start;
+        System.out.printf("%-28s %9.1f ms   heap %7.1f MB   tasks on heap %8d%n",
+                step, time / 1e6, usedHeap() / 1e6, manager.heapTasks());
+        start = System.nanoTime();
+    }
+
+    public static void main(String[] args) throws IOException {
+        final int number = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        final long memory = Config.parseMemory(args.length > 1 ? args[1] : "64m");
+        if (Files.exists(Paths.get(TaskManager.TODO_LIST_FILE))) {
+            throw new IllegalStateException(TaskManager.TODO_LIST_FILE + " exists, run the benchmark from an empty directory");
+        }
+        Path file = Files.createTempFile("capacity", BinaryUtills.EXTENSION);
+        BinaryUtills.write(generate(number), file.toString());
+        System.out.printf("%d tasks, %.1f MB file, %d MB for the tasks%n", number, Files.size(file) / 1e6, memory >> 20);
+        Config config = new Config(number + 2 * CHANGES, memory, false);
+
+        try {
+            start = System.nanoTime();
+            TaskManager manager = new TaskManager(config);
+            manager.load(file.toString(), NOWHERE);
+            report("load", manager);
+
+            for (int i = 0; i < CHANGES; i++) {
+                manager.add(" -t added " + i + " -dt details of the added task -dl 1/1/2030", NOWHERE);
+            }
+            report(CHANGES + " adds", manager);
+            for (int i = 0; i < CHANGES; i++) {
+                manager.markAsDone(1 + i * (number / CHANGES), NOWHERE);
+            }
+            report(CHANGES + " done", manager);
+
+            Writer out = new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream()));
+            manager.list(new HashSet<>(Set.of("expired")), out);
+            out.flush();
+            report("list expired", manager);
+
+            manager.storeChanges(true);
+            report("snapshot", manager);
+            manager.close();
+            manager = null;
+
+            start = System.nanoTime();
+            TaskManager restored = new TaskManager(config);
+            report("restore", restored);
+            restored.close();
+        } finally {
+            Files.delete(file);
+            for (String suffix : new String[]{"", TaskManager.JOURNAL_SUFFIX, ".tmp"}) {
+                Files.deleteIfExists(Paths.get(TaskManager.TODO_LIST_FILE + suffix));
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/* A small runner in the manner of JMH: every benchmark is run in a fresh JVM (a fork) with its own empty
+   working directory, first for a few warmup iterations and then for the measured ones.
+   Besides the average time of an operation it reports, like the JMH GC profiler, the bytes allocated
+   per operation, the allocation rate and the collections which happened while measuring.
+   Allocations are counted for the benchmark thread only, as JMH does, so the work of the background
+   persister is not included.
+
+   Options: -f forks (0 runs in this JVM and in the current directory), -wi warmup iterations,
+            -i measured iterations, -r iteration time in ms, -o a CSV file for the results,
+            the rest are regular expressions, a benchmark is run if its name matches any of them
+ */
+public class Harness {
+    /* A benchmarked operation together with the state it was prepared with.
+       close() declares no exceptions, so the failures of a teardown are rethrown unchecked
+     */
+    public interface Operation extends AutoCloseable {
+        Object run() throws Exception;
+
+        @Override
+        default void close() {
+        }
+    }
+
+    public interface Setup {
+        Operation prepare() throws Exception;
+    }
+
+    public static Operation operation(Callable<Object> run, AutoCloseable teardown) {
+        return new Operation() {
+            @Override
+            public Object run() throws Exception {
+                return run.call();
+            }
+
+            @Override
+            public void close() {
+                try {
+                    teardown.close();
+                } catch (Exception e) {
+                    if (e instanceof InterruptedException) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IllegalStateException("teardown failed", e);
+                }
+            }
+        };
+    }
+
+    private static final String RESULT_PREFIX = "RESULT\t";
+    private static final PrintStream NOWHERE = new PrintStream(OutputStream.nullOutputStream());
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /* The results of the operations end up here, so that JIT can not throw the operations away */
+    private static volatile int sink;
+
+    private final Class<?> mainClass;
+    private final Map<String, Setup> benchmarks = new LinkedHashMap<>();
+    private int forks = 1;
+    private int warmups = 3;
+    private int iterations = 5;
+    private long iterationMillis = 1000;
+    private String csv = null;
+    private String only = null;
+    private final List<Pattern> filters = new ArrayList<>();
+
+    private static class Result {
+        final String name;
+        final double score;
+        final double error;
+        final double bytesPerOp;
+        final double allocationRate;
+        final long gcCount;
+        final long gcMillis;
+
+        Result(String name, double score, double error, double bytesPerOp, double allocationRate, long gcCount, long gcMillis) {
+            this.name = name;
+            this.score = score;
+            this.error = error;
+            this.bytesPerOp = bytesPerOp;
+            this.allocationRate = allocationRate;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        String format() {
+            return String.join("\t", name, Double.toString(score), Double.toString(error), Double.toString(bytesPerOp),
+                    Double.toString(allocationRate), Long.toString(gcCount), Long.toString(gcMillis));
+        }
+
+        static Result parse(final String line) {
+            String[] p = line.split("\t");
+            return new Result(p[0], Double.parseDouble(p[1]), Double.parseDouble(p[2]), Double.parseDouble(p[3]),
+                    Double.parseDouble(p[4]), Long.parseLong(p[5]), Long.parseLong(p[6]));
+        }
+    }
+
+    public Harness(Class<?> mainClass) {
+        this.mainClass = mainClass;
+    }
+
+    public Harness add(final String name, Setup setup) {
+        benchmarks.put(name, setup);
+        return this;
+    }
+
+    private void parseOptions(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-f":
+                    forks = Integer.parseInt(args[++i]);
+                    break;
+                case "-wi":
+                    warmups = Integer.parseInt(args[++i]);
+                    break;
+                case "-i":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-r":
+                    iterationMillis = Long.parseLong(args[++i]);
+                    break;
+                case "-o":
+                    csv = args[++i];
+                    break;
+                case "--only":
+                    only = args[++i];
+                    break;
+                default:
+                    filters.add(Pattern.compile(args[i]));
+            }
+        }
+    }
+
+    private boolean selected(final String name) {
+        return filters.isEmpty() || filters.stream().anyMatch(filter -> filter.matcher(name).find());
+    }
+
+    /* Returns false if any of the benchmarks failed */
+    public boolean run(String[] args) throws IOException, InterruptedException {
+        parseOptions(args);
+        if (only != null) {
+            Result result = measure(only, benchmarks.get(only));
+            System.out.println(RESULT_PREFIX + result.format());
+            return true;
+        }
+
+        boolean succeeded = true;
+        List<Result> results = new ArrayList<>();
+        System.out.printf("%-32s %12s    %10s  %6s %14s %10s %6s%n", "Benchmark", "Score", "Error", "Units", "B/op", "MB/s", "GCs");
+        for (Map.Entry<String, Setup> benchmark : benchmarks.entrySet()) {
+            if (!selected(benchmark.getKey())) {
+                continue;
+            }
+            List<Result> runs = new ArrayList<>();
+            for (int fork = 0; fork < Math.max(1, forks); fork++) {
+                Result result = (forks == 0 ? measure(benchmark.getKey(), benchmark.getValue()) : fork(benchmark.getKey()));
+                if (result == null) {
+                    succeeded = false;
+                    break;
+                }
+                runs.add(result);
+            }
+            if (!runs.isEmpty()) {
+                Result result = merge(runs);
+                results.add(result);
+                System.out.printf("%-32s %12.3f +- %10.3f  %6s %14.1f %10.1f %6d%n", result.name, result.score, result.error,
+                        "us/op", result.bytesPerOp, result.allocationRate, result.gcCount);
+            }
+        }
+
+        if (csv != null) {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(csv)))) {
+                out.println("benchmark,us_per_op,error,bytes_per_op,alloc_mb_per_s,gc_count,gc_ms");
+                for (Result result : results) {
+                    out.printf(Locale.ROOT, "%s,%f,%f,%f,%f,%d,%d%n", result.name, result.score, result.error, result.bytesPerOp,
+                            result.allocationRate, result.gcCount, result.gcMillis);
+                }
+            }
+        }
+        return succeeded;
+    }
+
+    /* The forks are averaged, the error is the largest one among them */
+    private static Result merge(List<Result> runs) {
+        double score = 0, error = 0, bytesPerOp = 0, allocationRate = 0;
+        long gcCount = 0, gcMillis = 0;
+        for (Result run : runs) {
+            score += run.score;
+            error = Math.max(error, run.error);
+            bytesPerOp += run.bytesPerOp;
+            allocationRate += run.allocationRate;
+            gcCount += run.gcCount;
+            gcMillis += run.gcMillis;
+        }
+        return new Result(runs.get(0).name, score / runs.size(), error, bytesPerOp / runs.size(),
+                allocationRate / runs.size(), gcCount, gcMillis);
+    }
+
+    private Result fork(final String name) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(ProcessHandle.current().info().command().orElse("java"));
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), mainClass.getName(),
+                "-wi", Integer.toString(warmups), "-i", Integer.toString(iterations),
+                "-r", Long.toString(iterationMillis), "--only", name));
+
+        Path directory = Files.createTempDirectory("benchmark");
+        try {
+            Process process = new ProcessBuilder(command)
+                    .directory(directory.toFile())
+                    .redirectErrorStream(true)
+                    .start();
+            Result result = null;
+            List<String> output = new ArrayList<>();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    if (line.startsWith(RESULT_PREFIX)) {
+                        result = Result.parse(line.substring(RESULT_PREFIX.length()));
+                    } else {
+                        output.add(line);
+                    }
+                }
+            }
+            if (process.waitFor() != 0 || result == null) {
+                System.out.println("Couldn't run " + name + ":");
+                output.subList(Math.max(0, output.size() - 10), output.size()).forEach(System.out::println);
+                return null;
+            }
+            return result;
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long gcMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    /* Runs the operation for the iteration time and returns the number of operations */
+    private long iteration(Operation operation) throws Exception {
+        long ops = 0;
+        int hash = 0;
+        final long deadline = System.nanoTime() + iterationMillis * 1_000_000;
+        do {
+            hash ^= System.identityHashCode(operation.run());
+            ops++;
+        } while (System.nanoTime() < deadline);
+        sink = hash;
+        return ops;
+    }
+
+    /* The benchmarks print their usual messages, so the output is muted while they run */
+    private Result measure(final String name, Setup setup) {
+        PrintStream out = System.out;
+        System.setOut(NOWHERE);
+        try (Operation operation = setup.prepare()) {
+            for (int i = 0; i < warmups; i++) {
+                iteration(operation);
+            }
+
+            final long thread = Thread.currentThread().getId();
+            final long gcCount = gcCount(), gcMillis = gcMillis();
+            final long allocated = THREADS.getThreadAllocatedBytes(thread);
+            long ops = 0, time = 0;
+            double[] scores = new double[iterations];
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                long iterationOps = iteration(operation);
+                long iterationTime = System.nanoTime() - start;
+                scores[i] = iterationTime / 1e3 / iterationOps;
+                ops += iterationOps;
+                time += iterationTime;
+            }
+            double bytes = THREADS.getThreadAllocatedBytes(thread) - allocated;
+
+            double score = time / 1e3 / ops;
+            double variance = 0;
+            for (double s : scores) {
+                variance += (s - score) * (s - score);
+            }
+            double error = (iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0);
+            return new Result(name, score, error, bytes / ops, bytes / 1e6 / (time / 1e9),
+                    gcCount() - gcCount, gcMillis() - gcMillis);
+        } catch (Exception e) {
+            throw new IllegalStateException(name + " failed", e);
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
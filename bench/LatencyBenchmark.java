@@ -0,0 +1,63 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+/* Measures the latency of single add/remove/done requests on a large list, persistence included.
+   It rewrites todo-list.json in the working directory, so run it from an empty directory.
+   Usage: java LatencyBenchmark [tasks] [requests]
+ */
+public class LatencyBenchmark {
+    private static final PrintStream NOWHERE = new PrintStream(OutputStream.nullOutputStream());
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    public static void main(String[] args) {
+        final int number = args.length > 0 ? Integer.parseInt(args[0]) : LoadBenchmark.TASKS / 2;
+        final int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+        if (Files.exists(Paths.get(TaskManager.TODO_LIST_FILE))) {
+            System.out.println(TaskManager.TODO_LIST_FILE + " exists, run the benchmark from an empty directory");
+            return;
+        }
+        JsonUtills.store(LoadBenchmark.generate(number, 42), TaskManager.TODO_LIST_FILE);
+        TaskManager manager = new TaskManager();
+
+        Random rnd = new Random(7);
+        long[] latencies = new long[requests];
+        PrintStream out = System.out;
+        System.setOut(NOWHERE);
+        try {
+            for (int i = 0; i < requests; i++) {
+                String request;
+                switch (rnd.nextInt(3)) {
+                    case 0:
+                        request = "add -t task " + i + " -dt generated by the benchmark -dl 1/1/2030";
+                        break;
+                    case 1:
+                        request = "remove " + (1 + rnd.nextInt(number));
+                        break;
+                    default:
+                        request = "done " + (1 + rnd.nextInt(number));
+                }
+                long start = System.nanoTime();
+                manager.processRequest(request);
+                latencies[i] = System.nanoTime() - start;
+            }
+            manager.storeChanges(true);
+        } finally {
+            System.setOut(out);
+        }
+
+        Arrays.sort(latencies);
+        System.out.printf("%d requests on %d tasks: p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f ms%n",
+                requests, number,
+                percentile(latencies, 0.5) / 1e3, percentile(latencies, 0.99) / 1e3,
+                percentile(latencies, 0.999) / 1e3, latencies[latencies.length - 1] / 1e6);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,101 @@
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/* Compares the old "read the whole array, then trim" load path with the streaming JsonUtills.load.
+   Usage: java LoadBenchmark [tasks in file] [limit]
+ */
+public class LoadBenchmark {
+    private static final int ROUNDS = 5;
+    /* The size of the lists the benchmarks are run with by default */
+    static final int TASKS = 100000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private interface Loader {
+        List<Task> load(String filename, int limit) throws IOException;
+    }
+
+    private static List<Task> legacyLoad(final String filename, final int limit) throws IOException {
+        Gson gson = new Gson();
+        try (JsonReader reader = gson.newJsonReader(Files.newBufferedReader(Path.of(filename)))) {
+            List<Task> loaded = new ArrayList<>(Arrays.asList(gson.fromJson(reader, Task[].class)));
+            while (loaded.size() > limit) {
+                loaded.remove(loaded.size() - 1);
+            }
+            return loaded;
+        }
+    }
+
+    private static List<Task> streamingLoad(final String filename, final int limit) {
+        return JsonUtills.load(filename, limit).getTasks();
+    }
+
+    static List<Task> generate(int number, long seed) {
+        Random rnd = new Random(seed);
+        List<Task> tasks = new ArrayList<>(number);
+        for (int i = 1; i <= number; i++) {
+            try {
+                Task task = new Task(i, "task " + rnd.nextInt(1000), "details of the task number " + i,
+                        (1 + rnd.nextInt(28)) + "/" + (1 + rnd.nextInt(12)) + "/" + (2000 + rnd.nextInt(40)));
+                task.setDone(rnd.nextBoolean());
+                tasks.add(task);
+            } catch (TaskException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return tasks;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void measure(final String name, Loader loader, final String filename, final int limit) throws IOException {
+        long bestTime = Long.MAX_VALUE, allocated = 0, retained = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = usedHeap();
+            long allocatedBefore = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long start = System.nanoTime();
+            List<Task> tasks = loader.load(filename, limit);
+            long time = System.nanoTime() - start;
+            allocated = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+            retained = usedHeap() - before;
+            bestTime = Math.min(bestTime, time);
+            if (tasks.size() != limit) {
+                throw new IllegalStateException(name + " loaded " + tasks.size() + " tasks instead of " + limit);
+            }
+        }
+        System.out.printf("%-10s best %8.1f ms, allocated %8.1f MB, retained %7.1f MB%n",
+                name, bestTime / 1e6, allocated / 1e6, retained / 1e6);
+    }
+
+    public static void main(String[] args) throws IOException {
+        final int number = args.length > 0 ? Integer.parseInt(args[0]) : 4 * TASKS;
+        final int limit = args.length > 1 ? Integer.parseInt(args[1]) : TASKS;
+
+        Path file = Files.createTempFile("load-benchmark", ".json");
+        try {
+            JsonUtills.store(generate(number, 42), file.toString());
+            System.out.printf("File with %d tasks (%.1f MB), limit %d%n", number, Files.size(file) / 1e6, limit);
+
+            measure("legacy", LoadBenchmark::legacyLoad, file.toString(), limit);
+            measure("streaming", LoadBenchmark::streamingLoad, file.toString(), limit);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
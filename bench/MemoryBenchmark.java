@@ -0,0 +1,87 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/* The heap retained per task by the ways the list can be kept: the ArrayList of tasks the manager used to keep,
+   the TaskStore of tasks and the TaskStore of the rows of CompactTasks.
+   The generated tasks have 1000 different titles and unique details; the recurring ones have 20 titles
+   and mostly no details, as the lists of the daily tasks do.
+   Usage: java MemoryBenchmark [tasks...]
+ */
+public class MemoryBenchmark {
+    private static final String[] RECURRING = {"standup", "weekly report", "review", "planning", "retro", "1:1",
+            "deploy", "backup", "invoices", "gym", "groceries", "call mom", "water plants", "reading", "cleaning",
+            "laundry", "pay rent", "taxes", "dentist", "walk"};
+
+    private static Object sink;
+
+    private static List<Task> recurring(int number, long seed) {
+        Random rnd = new Random(seed);
+        List<Task> tasks = new ArrayList<>(number);
+        for (int i = 1; i <= number; i++) {
+            Task task = new Task(i);
+            /* the strings are new objects, as the ones read from a file are */
+            task.setTitle(new String(RECURRING[rnd.nextInt(RECURRING.length)]));
+            task.setDetails(rnd.nextInt(10) == 0 ? new String("do not forget " + RECURRING[rnd.nextInt(RECURRING.length)]) : null);
+            task.setDeadlineMillis(rnd.nextInt(4) == 0 ? TaskEntry.NO_DEADLINE : 1_900_000_000_000L + rnd.nextInt(1_000_000) * 1000L);
+            task.setDone(rnd.nextBoolean());
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    private static TaskStore store(List<Task> tasks) {
+        TaskStore store = new TaskStore();
+        tasks.forEach(store::put);
+        return store;
+    }
+
+    private static TaskStore compact(List<Task> tasks) {
+        CompactTasks packed = CompactTasks.pack(tasks);
+        TaskStore store = new TaskStore();
+        for (int row = 0; row < packed.size(); row++) {
+            store.put(packed.row(row));
+        }
+        return store;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /* The tasks are generated inside, so only what the structure keeps of them is counted */
+    private static void measure(final String name, int number, Function<Integer, List<Task>> generator,
+                                Function<List<Task>, Object> structure) {
+        sink = null;
+        final long before = usedHeap();
+        sink = structure.apply(generator.apply(number));
+        final long retained = usedHeap() - before;
+        System.out.printf("%-24s %8d tasks %8.1f MB %7.1f B/task%n", name, number, retained / 1e6, (double) retained / number);
+        sink = null;
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = {100_000, 1_000_000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int number : sizes) {
+            Function<Integer, List<Task>> generated = n -> LoadBenchmark.generate(n, 42);
+            Function<Integer, List<Task>> recurring = n -> recurring(n, 42);
+            measure("generated:ArrayList", number, generated, tasks -> tasks);
+            measure("generated:TaskStore", number, generated, MemoryBenchmark::store);
+            measure("generated:compact", number, generated, MemoryBenchmark::compact);
+            measure("recurring:ArrayList", number, recurring, tasks -> tasks);
+            measure("recurring:TaskStore", number, recurring, MemoryBenchmark::store);
+            measure("recurring:compact", number, recurring, MemoryBenchmark::compact);
+        }
+    }
+}
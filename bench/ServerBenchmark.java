@@ -0,0 +1,139 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Measures the throughput of TaskServer: every client sends a batch of requests at once and then reads their
+   responses, so a batch of 1 is a request-response client and larger ones are pipelining clients.
+   A request is a page of the undone tasks, marking a task as done or adding a task.
+   The server runs in the same process.
+   It rewrites todo-list.json in the working directory, so run it from an empty directory.
+   Usage: java ServerBenchmark [tasks] [seconds per run] [connections...]
+ */
+public class ServerBenchmark {
+    private static final PrintStream NOWHERE = new PrintStream(OutputStream.nullOutputStream());
+    private static final int[] BATCHES = {1, 16, 128};
+
+    private static void skipFrame(DataInputStream in) throws IOException {
+        int length = 0;
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new IOException("The server has closed the connection");
+            }
+            length = length * 10 + (c - '0');
+        }
+        in.skipNBytes(length);
+    }
+
+    private static void work(int port, int batch, int tasks, long seed, AtomicBoolean running, LongAdder requests)
+            throws IOException {
+        Random rnd = new Random(seed);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            StringBuilder requestBatch = new StringBuilder();
+            while (running.get()) {
+                requestBatch.setLength(0);
+                int sent = 0;
+                while (sent < batch) {
+                    switch (rnd.nextInt(3)) {
+                        case 0:
+                            requestBatch.append("list undone --limit 10 --after ").append(rnd.nextInt(tasks)).append('\n');
+                            sent++;
+                            break;
+                        case 1:
+                            requestBatch.append("done ").append(1 + rnd.nextInt(tasks)).append('\n');
+                            sent++;
+                            break;
+                        default:
+                            requestBatch.append("add -t benchmark -dl 1/1/2030\n");
+                            sent++;
+                    }
+                }
+                out.write(requestBatch.toString().getBytes());
+                for (int i = 0; i < sent; i++) {
+                    skipFrame(in);
+                }
+                requests.add(sent);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final int number = args.length > 0 ? Integer.parseInt(args[0]) : LoadBenchmark.TASKS / 2;
+        final long seconds = args.length > 1 ? Long.parseLong(args[1]) : 3;
+        List<Integer> connections = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            connections.add(Integer.parseInt(args[i]));
+        }
+        if (connections.isEmpty()) {
+            connections = List.of(1, 4, 16);
+        }
+
+        if (Files.exists(Paths.get(TaskManager.TODO_LIST_FILE))) {
+            System.out.println(TaskManager.TODO_LIST_FILE + " exists, run the benchmark from an empty directory");
+            return;
+        }
+        JsonUtills.store(LoadBenchmark.generate(number, 42), TaskManager.TODO_LIST_FILE);
+        PrintStream console = System.out;
+        System.setOut(NOWHERE);
+        TaskManager manager = new TaskManager();
+        TaskServer server = new TaskServer(manager, 0);
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        serving.start();
+
+        console.printf("%d tasks, %d cores%n", number, Runtime.getRuntime().availableProcessors());
+        for (int clients : connections) {
+            for (int batch : BATCHES) {
+                AtomicBoolean running = new AtomicBoolean(true);
+                LongAdder requests = new LongAdder();
+                List<Thread> workers = new ArrayList<>();
+                for (int i = 0; i < clients; i++) {
+                    final long seed = i;
+                    workers.add(new Thread(() -> {
+                        try {
+                            work(server.getPort(), batch, number, seed, running, requests);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+                }
+                long start = System.nanoTime();
+                workers.forEach(Thread::start);
+                Thread.sleep(seconds * 1000);
+                running.set(false);
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                double time = (System.nanoTime() - start) / 1e9;
+                console.printf("%2d connections, batches of %3d: %10.0f requests/s%n", clients, batch, requests.sum() / time);
+            }
+        }
+
+        server.close();
+        serving.join();
+        manager.storeChanges(true);
+        manager.close();
+        System.setOut(console);
+        System.exit(0);
+    }
+}
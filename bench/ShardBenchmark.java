@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Compares one TaskManager with the lists split into 2 to 8 shards under the same load: a number of threads send
+   the requests, mostly adds and done of random tasks, the rest are the first pages of the undone tasks.
+   Shows the throughput and the latencies of the changes, which include the snapshots of the lists.
+   It writes todo-list.json and its shards in the working directory, so run it from an empty directory.
+   Usage: java ShardBenchmark [tasks] [threads] [seconds per shard count] [percent of writes]
+ */
+public class ShardBenchmark {
+    private static final PrintStream NOWHERE = new PrintStream(OutputStream.nullOutputStream());
+    private static final int[] SHARDS = {1, 2, 4, 8};
+
+    private static void work(RequestProcessor manager, int tasks, int writePercent, long seed, AtomicBoolean running,
+                             LongAdder reads, LatencyHistogram writes) {
+        Random rnd = new Random(seed);
+        while (running.get()) {
+            if (rnd.nextInt(100) < writePercent) {
+                final long start = System.nanoTime();
+                if (rnd.nextBoolean()) {
+                    manager.processRequest("add -t benchmark -dt added by the benchmark -dl 1/1/2030", NOWHERE);
+                } else {
+                    manager.processRequest("done " + (1 + rnd.nextInt(tasks)), NOWHERE);
+                }
+                writes.record(System.nanoTime() - start);
+            } else {
+                manager.processRequest("list undone --limit 50", NOWHERE);
+                reads.increment();
+            }
+        }
+    }
+
+    private static void delete(int shards) throws IOException {
+        for (int k = 0; k <= shards; k++) {
+            final String filename = (k == shards ? TaskManager.TODO_LIST_FILE : ShardedTaskManager.filename(k));
+            for (String suffix : new String[]{"", TaskManager.JOURNAL_SUFFIX, ".tmp"}) {
+                Files.deleteIfExists(Paths.get(filename + suffix));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        final int number = args.length > 0 ? Integer.parseInt(args[0]) : LoadBenchmark.TASKS / 2;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final long seconds = args.length > 2 ? Long.parseLong(args[2]) : 3;
+        final int writePercent = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+
+        if (Files.exists(Paths.get(TaskManager.TODO_LIST_FILE)) || Files.exists(Paths.get(ShardedTaskManager.filename(0)))) {
+            System.out.println(TaskManager.TODO_LIST_FILE + " or its shards exist, run the benchmark from an empty directory");
+            return;
+        }
+        final String source = "shard-benchmark.json";
+        JsonUtills.store(LoadBenchmark.generate(number, 42), source);
+        PrintStream console = System.out;
+        console.printf("%d tasks, %d threads, %d%% of writes, %d cores%n", number, threads, writePercent,
+                Runtime.getRuntime().availableProcessors());
+        for (int shards : SHARDS) {
+            System.setOut(NOWHERE);
+            Config config = Config.load().withShards(shards);
+            RequestProcessor manager = (shards > 1 ? new ShardedTaskManager(config) : new TaskManager(config));
+            /* the loaded tasks get the same ids, whatever the shards */
+            manager.processRequest("load " + source, NOWHERE);
+
+            AtomicBoolean running = new AtomicBoolean(true);
+            LongAdder reads = new LongAdder();
+            LatencyHistogram writes = new LatencyHistogram();
+            CountDownLatch finished = new CountDownLatch(threads);
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                final long seed = i;
+                workers.add(new Thread(() -> {
+                    try {
+                        work(manager, number, writePercent, seed, running, reads, writes);
+                    } finally {
+                        finished.countDown();
+                    }
+                }));
+            }
+            long start = System.nanoTime();
+            workers.forEach(Thread::start);
+            Thread.sleep(seconds * 1000);
+            running.set(false);
+            finished.await();
+            double time = (System.nanoTime() - start) / 1e9;
+            manager.storeChanges(true);
+            manager.close();
+            System.setOut(console);
+            console.printf("%d shards: %9.0f ops/s (%8.0f lists/s, %8.0f changes/s), change p50 %6.1f us, p99 %8.1f us, max %8.1f ms%n",
+                    shards, (reads.sum() + writes.getCount()) / time, reads.sum() / time, writes.getCount() / time,
+                    writes.percentile(50) / 1e3, writes.percentile(99) / 1e3, writes.getMax() / 1e6);
+            delete(shards);
+        }
+        Files.delete(Paths.get(source));
+        System.exit(0);
+    }
+}
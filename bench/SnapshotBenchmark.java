@@ -0,0 +1,136 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/* Compares the snapshot formats: pretty, compact and gzipped JSON, the binary and the slots files.
+   For each of them the file size, the store time, cold load (a fresh JVM per load) and warm load, and the cost of saving a few changes in place against rewriting the list.
+   Usage: java SnapshotBenchmark [tasks]
+ */
+public class SnapshotBenchmark {
+    private static final int WARM_ROUNDS = 5;
+
+    private static long timeLoad(final String filename) {
+        long start = System.nanoTime();
+        LoadResult loaded = TaskFormat.detect(filename).load(filename, Integer.MAX_VALUE);
+        long time = System.nanoTime() - start;
+        if (loaded.getTasks().isEmpty()) {
+            throw new IllegalStateException("nothing was loaded from " + filename);
+        }
+        return time;
+    }
+
+    /* Runs a single load in a new JVM, so that neither JIT nor class loading is warmed up */
+    private static long coldLoad(final String filename) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"), SnapshotBenchmark.class.getName(), "--cold", filename)
+                .redirectErrorStream(true)
+                .start();
+        String last = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                last = line;
+            }
+        }
+        if (process.waitFor() != 0 || last == null) {
+            throw new IllegalStateException("cold load of " + filename + " failed: " + last);
+        }
+        return Long.parseLong(last.trim());
+    }
+
+    private static void measure(final String name, List<Task> tasks, final String filename) throws IOException, InterruptedException {
+        final TaskFormat format = TaskFormat.of(filename);
+        long store = Long.MAX_VALUE;
+        for (int i = 0; i < WARM_ROUNDS; i++) {
+            long start = System.nanoTime();
+            format.store(tasks, filename);
+            store = Math.min(store, System.nanoTime() - start);
+        }
+        long cold = coldLoad(filename);
+        long warm = Long.MAX_VALUE;
+        for (int i = 0; i < WARM_ROUNDS; i++) {
+            warm = Math.min(warm, timeLoad(filename));
+        }
+        System.out.printf("%-8s %7.1f MB, store %7.1f ms, cold load %7.1f ms, warm load %7.1f ms%n",
+                name, Files.size(Path.of(filename)) / 1e6, store / 1e6, cold / 1e6, warm / 1e6);
+    }
+
+    /* Opens the binary file as a mapped one and scans the deadline and done columns, like "list expired" does */
+    private static void measureMapped(final String filename) throws IOException {
+        long best = Long.MAX_VALUE;
+        int expired = 0;
+        for (int i = 0; i < WARM_ROUNDS; i++) {
+            long start = System.nanoTime();
+            MappedTaskFile mapped = MappedTaskFile.open(filename);
+            expired = 0;
+            for (int row = 0; row < mapped.size(); row++) {
+                if (!mapped.isDone(row) && mapped.row(row, row + 1).isExpired()) {
+                    expired++;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("mapped   open and scan for expired tasks (%d found) %7.1f ms%n", expired, best / 1e6);
+    }
+
+    /* Changes a thousand tasks of the slots file in place and writes the whole list once for comparison */
+    private static void measureChanges(List<Task> tasks, final String filename) throws IOException {
+        final int changes = Math.min(1000, tasks.size());
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < WARM_ROUNDS; i++) {
+            SlotFile slots = SlotFile.open(filename);
+            long start = System.nanoTime();
+            for (int j = 0; j < changes; j++) {
+                Task task = tasks.get(j * (tasks.size() / changes));
+                if (j % 2 == 0) {
+                    slots.done(task.getId());
+                } else {
+                    slots.added(task);
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            slots.close();
+        }
+        long rewrite = Long.MAX_VALUE;
+        for (int i = 0; i < WARM_ROUNDS; i++) {
+            long start = System.nanoTime();
+            SlotFile.write(tasks, filename);
+            rewrite = Math.min(rewrite, System.nanoTime() - start);
+        }
+        System.out.printf("slots    %d changes in place %7.1f ms, rewrite of the list %7.1f ms%n", changes, best / 1e6, rewrite / 1e6);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 2 && args[0].equals("--cold")) {
+            System.out.println(timeLoad(args[1]));
+            return;
+        }
+        final int number = args.length > 0 ? Integer.parseInt(args[0]) : LoadBenchmark.TASKS;
+
+        Path json = Files.createTempFile("snapshot-benchmark", ".json");
+        Path compact = Files.createTempFile("snapshot-benchmark", TaskFormat.COMPACT_JSON_EXTENSION);
+        Path gzip = Files.createTempFile("snapshot-benchmark", ".json" + TaskFormat.GZIP_EXTENSION);
+        Path binary = Files.createTempFile("snapshot-benchmark", BinaryUtills.EXTENSION);
+        Path slots = Files.createTempFile("snapshot-benchmark", SlotFile.EXTENSION);
+        try {
+            List<Task> tasks = LoadBenchmark.generate(number, 42);
+
+            System.out.println(number + " tasks");
+            measure("json", tasks, json.toString());
+            measure("min.json", tasks, compact.toString());
+            measure("json.gz", tasks, gzip.toString());
+            measure("binary", tasks, binary.toString());
+            measure("slots", tasks, slots.toString());
+            measureMapped(binary.toString());
+            measureChanges(tasks, slots.toString());
+        } finally {
+            Files.delete(json);
+            Files.delete(compact);
+            Files.delete(gzip);
+            Files.delete(binary);
+            Files.delete(slots);
+        }
+    }
+}
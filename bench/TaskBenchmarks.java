@@ -0,0 +1,269 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/* The benchmarks of the hot paths: loading and storing of the JSON list, listing with every combination
+   of the flags (and with a few undone tasks among 100k), processing of the change requests and parsing of long add requests.
+   Usage: java TaskBenchmarks [-f forks] [-wi warmup iterations] [-i iterations] [-r iteration ms] [-o results.csv] [name regex...]
+   or bench/run.sh with the same arguments, which compiles everything first
+ */
+public class TaskBenchmarks {
+    private static final int[] SIZES = {1000, 10000, 100000};
+    private static final int MANAGER_SIZE = 10000;
+    private static final int SPARSE_UNDONE_EVERY = 1000;
+    private static final int PAGE_SIZE = 50;
+    private static final int FILES = 8;
+    private static final int SEARCH_WORDS = 10000;
+    private static final String[] FLAGS = {"all", "done", "undone", "expired"};
+    private static final PrintStream NOWHERE = new PrintStream(OutputStream.nullOutputStream());
+
+    private static Harness.Operation load(int size) throws IOException {
+        Path file = Files.createTempFile("benchmark", ".json");
+        JsonUtills.store(LoadBenchmark.generate(size, 42), file.toString());
+        return Harness.operation(() -> JsonUtills.load(file.toString()), () -> Files.delete(file));
+    }
+
+    /* The load request with several files, which are parsed in parallel */
+    private static Harness.Operation loadFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            files.add(Files.createTempFile("benchmark", ".json"));
+            JsonUtills.store(LoadBenchmark.generate(LoadBenchmark.TASKS / FILES, i), files.get(i).toString());
+        }
+        List<String> filenames = new ArrayList<>();
+        files.forEach(file -> filenames.add(file.toString()));
+        return Harness.operation(() -> {
+            TaskManager manager = new TaskManager();
+            manager.load(filenames);
+            manager.close();
+            return manager;
+        }, () -> {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        });
+    }
+
+    private static Harness.Operation store(int size) throws IOException {
+        Path file = Files.createTempFile("benchmark", ".json");
+        List<Task> tasks = LoadBenchmark.generate(size, 42);
+        return Harness.operation(() -> JsonUtills.store(tasks, file.toString()), () -> Files.delete(file));
+    }
+
+    /* The manager works with todo-list.json of the working directory, so it must not exist yet */
+    private static TaskManager manager(List<Task> tasks) {
+        if (Files.exists(Paths.get(TaskManager.TODO_LIST_FILE))) {
+            throw new IllegalStateException(TaskManager.TODO_LIST_FILE + " exists, run the benchmark from an empty directory");
+        }
+        JsonUtills.store(tasks, TaskManager.TODO_LIST_FILE);
+        return new TaskManager();
+    }
+
+    private static TaskManager manager() {
+        return manager(LoadBenchmark.generate(MANAGER_SIZE, 42));
+    }
+
+    private static void dispose(TaskManager manager) throws IOException {
+        manager.close();
+        for (String suffix : new String[]{"", TaskManager.JOURNAL_SUFFIX, ".tmp"}) {
+            Files.deleteIfExists(Paths.get(TaskManager.TODO_LIST_FILE + suffix));
+        }
+    }
+
+    /* Lists the tasks the way processRequest prints them */
+    private static Writer list(TaskManager manager, Set<String> flags) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream()));
+        manager.list(flags, out);
+        out.flush();
+        return out;
+    }
+
+    private static Harness.Operation list(Set<String> flags) {
+        TaskManager manager = manager();
+        return Harness.operation(() -> list(manager, flags), () -> dispose(manager));
+    }
+
+    /* The list the dashboards poll: almost everything is done, so only a few tasks are listed */
+    private static Harness.Operation sparseList(Set<String> flags) {
+        List<Task> tasks = LoadBenchmark.generate(LoadBenchmark.TASKS, 42);
+        for (int i = 0; i < tasks.size(); i++) {
+            tasks.get(i).setDone(i % SPARSE_UNDONE_EVERY != 0);
+        }
+        TaskManager manager = manager(tasks);
+        return Harness.operation(() -> list(manager, flags), () -> dispose(manager));
+    }
+
+    /* The first page of the list, as the UI requests it */
+    private static Harness.Operation page(String order) {
+        TaskManager manager = manager();
+        final String args = "undone --sort " + order + " --limit " + PAGE_SIZE;
+        return Harness.operation(() -> {
+            Writer out = new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream()));
+            manager.list(args, out);
+            out.flush();
+            return out;
+        }, () -> dispose(manager));
+    }
+
+    /* Each operation adds a task and removes it, so the list keeps its size. The ids are never reused,
+       so the added task gets the next one
+     */
+    private static Harness.Operation addRemove(boolean done) {
+        TaskManager manager = manager();
+        final int[] lastId = {MANAGER_SIZE};
+        return Harness.operation(() -> {
+            final int id = ++lastId[0];
+            manager.processRequest("add -t benchmark -dt added and removed -dl 1/1/2030");
+            if (done) {
+                manager.processRequest("done " + id);
+            }
+            manager.processRequest("remove " + id);
+            return manager;
+        }, () -> dispose(manager));
+    }
+
+    private static Harness.Operation done() {
+        TaskManager manager = manager();
+        Random rnd = new Random(7);
+        return Harness.operation(() -> manager.processRequest("done " + (1 + rnd.nextInt(MANAGER_SIZE))), () -> dispose(manager));
+    }
+
+    private static Harness.Operation parse() {
+        StringBuilder details = new StringBuilder();
+        while (details.length() < 200) {
+            details.append("word").append(details.length()).append(' ');
+        }
+        final String request = "add -t a long enough title -dt " + details.toString().trim() + " -dl 31/12/2030";
+        RequestTokenizer words = new RequestTokenizer();
+        Parser parser = new Parser("-t", "-dt", "-dl");
+        return () -> {
+            words.reset(request).next();
+            parser.parse(words);
+            return parser;
+        };
+    }
+
+    /* The task of an add request with a deadline, as the constructor parses it */
+    private static Harness.Operation createTask() {
+        final int[] id = {0};
+        return () -> new Task(++id[0], "a long enough title", "details", "31/12/2030 18:30");
+    }
+
+    private static Harness.Operation parseIds() {
+        final String request = "remove 1 22 333 4444 55555 66666 77777 88888";
+        RequestTokenizer words = new RequestTokenizer();
+        return () -> {
+            words.reset(request).next();
+            return words.readInts();
+        };
+    }
+
+    /* The whole way of a request which does not change anything: recognizing, parsing and the message */
+    private static Harness.Operation missing() {
+        TaskManager manager = manager();
+        return Harness.operation(() -> manager.processRequest("done 0 0 0 0", NOWHERE), () -> dispose(manager));
+    }
+
+    /* 100k tasks with up to 200 characters of details, made of words which are the more frequent the smaller
+       their number: "w0" is in most of the tasks, "w5000" in a few of them
+     */
+    private static SearchIndex searchIndex() {
+        Random rnd = new Random(42);
+        SearchIndex index = new SearchIndex();
+        for (int id = 1; id <= LoadBenchmark.TASKS; id++) {
+            Task task = new Task(id);
+            task.setTitle("task w" + rnd.nextInt(1 + rnd.nextInt(SEARCH_WORDS)));
+            StringBuilder details = new StringBuilder();
+            while (details.length() < 190) {
+                details.append('w').append(rnd.nextInt(1 + rnd.nextInt(SEARCH_WORDS))).append(' ');
+            }
+            task.setDetails(details.toString());
+            index.add(task);
+        }
+        return index;
+    }
+
+    private static Harness.Operation search(String query) {
+        SearchIndex index = searchIndex();
+        return () -> index.search(query);
+    }
+
+    /* A deadline is scheduled and cancelled among 100k pending ones, as add and remove of a task do.
+       The window keeps the nearest of them, the source stands for the list
+     */
+    private static Harness.Operation deadlines() {
+        Map<Integer, Long> pending = new HashMap<>();
+        DeadlineScheduler scheduler = new DeadlineScheduler("benchmark", action -> {
+            synchronized (pending) {
+                pending.forEach(action::accept);
+            }
+        });
+        final long future = System.currentTimeMillis() + 24L * 60 * 60 * 1000;
+        Random rnd = new Random(42);
+        synchronized (pending) {
+            for (int id = 1; id <= LoadBenchmark.TASKS; id++) {
+                final long deadline = future + rnd.nextInt(1000000);
+                pending.put(id, deadline);
+                scheduler.schedule(id, deadline);
+            }
+        }
+        final int[] next = {LoadBenchmark.TASKS};
+        return Harness.operation(() -> {
+            final int id = ++next[0];
+            scheduler.schedule(id, future + rnd.nextInt(1000000));
+            scheduler.cancel(id);
+            return scheduler;
+        }, scheduler::close);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Harness harness = new Harness(TaskBenchmarks.class);
+        for (int size : SIZES) {
+            harness.add("load.json:" + size, () -> load(size));
+        }
+        harness.add("load.files:" + FILES + "x" + LoadBenchmark.TASKS / FILES, TaskBenchmarks::loadFiles);
+        for (int size : SIZES) {
+            harness.add("store.json:" + size, () -> store(size));
+        }
+        for (int mask = 1; mask < 1 << FLAGS.length; mask++) {
+            List<String> flags = new ArrayList<>();
+            for (int i = 0; i < FLAGS.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    flags.add(FLAGS[i]);
+                }
+            }
+            harness.add("list:" + String.join("+", flags), () -> list(new HashSet<>(flags)));
+        }
+        harness.add("list.sparse:undone", () -> sparseList(new HashSet<>(Set.of("undone"))));
+        harness.add("list.sparse:expired", () -> sparseList(new HashSet<>(Set.of("expired"))));
+        for (String order : new String[]{"id", "deadline", "title"}) {
+            harness.add("list.page:undone:" + order, () -> page(order));
+        }
+        harness.add("request:add+remove", () -> addRemove(false));
+        harness.add("request:add+done+remove", () -> addRemove(true));
+        harness.add("request:done", TaskBenchmarks::done);
+        harness.add("request:done-missing", TaskBenchmarks::missing);
+        harness.add("deadlines:schedule+cancel", TaskBenchmarks::deadlines);
+        harness.add("parse:add", TaskBenchmarks::parse);
+        harness.add("parse:task", TaskBenchmarks::createTask);
+        harness.add("parse:ids", TaskBenchmarks::parseIds);
+        for (String query : new String[]{"w4000", "w4000 w1", "w1 w2", "w1 w2 w3", "w40*", "w4000 | w4001 | w4002", "w1 w4*"}) {
+            harness.add("search:" + query.replace(" ", "_"), () -> search(query));
+        }
+
+        System.exit(harness.run(args) ? 0 : 1);
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Measures the throughput of a TaskManager shared by 1 to 32 threads. Every thread lists the first page
+   of the undone tasks and, now and then, adds a task, marks it as done and removes it.
+   It rewrites todo-list.json in the working directory, so run it from an empty directory.
+   Usage: java ThroughputBenchmark [tasks] [seconds per thread count] [percent of writes]
+ */
+public class ThroughputBenchmark {
+    private static final PrintStream NOWHERE = new PrintStream(OutputStream.nullOutputStream());
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+    private static final int PAGE_SIZE = 50;
+
+    private static void work(TaskManager manager, int writePercent, long seed, AtomicBoolean running,
+                             LongAdder reads, LongAdder writes) throws IOException {
+        Random rnd = new Random(seed);
+        TaskQuery query = new TaskQuery(Set.of("undone"), TaskQuery.Order.ID);
+        Writer out = new BufferedWriter(new OutputStreamWriter(OutputStream.nullOutputStream()));
+        while (running.get()) {
+            if (rnd.nextInt(100) < writePercent) {
+                int id = manager.add(" -t benchmark -dt added by the benchmark -dl 1/1/2030");
+                manager.markAsDone(id);
+                manager.remove(id);
+                writes.increment();
+            } else {
+                manager.list(query, null, PAGE_SIZE, out);
+                out.flush();
+                reads.increment();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final int number = args.length > 0 ? Integer.parseInt(args[0]) : LoadBenchmark.TASKS / 2;
+        final long seconds = args.length > 1 ? Long.parseLong(args[1]) : 3;
+        final int writePercent = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        if (Files.exists(Paths.get(TaskManager.TODO_LIST_FILE))) {
+            System.out.println(TaskManager.TODO_LIST_FILE + " exists, run the benchmark from an empty directory");
+            return;
+        }
+        JsonUtills.store(LoadBenchmark.generate(number, 42), TaskManager.TODO_LIST_FILE);
+        PrintStream console = System.out;
+        System.setOut(NOWHERE);
+        TaskManager manager = new TaskManager();
+
+        console.printf("%d tasks, %d%% of writes, %d cores%n", number, writePercent, Runtime.getRuntime().availableProcessors());
+        for (int threads : THREADS) {
+            AtomicBoolean running = new AtomicBoolean(true);
+            LongAdder reads = new LongAdder(), writes = new LongAdder();
+            CountDownLatch finished = new CountDownLatch(threads);
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                final long seed = i;
+                workers.add(new Thread(() -> {
+                    try {
+                        work(manager, writePercent, seed, running, reads, writes);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        finished.countDown();
+                    }
+                }));
+            }
+            long start = System.nanoTime();
+            workers.forEach(Thread::start);
+            Thread.sleep(seconds * 1000);
+            running.set(false);
+            finished.await();
+            double time = (System.nanoTime() - start) / 1e9;
+            console.printf("%2d threads: %10.0f ops/s (%9.0f lists/s, %8.0f add+done+remove/s)%n", threads,
+                    (reads.sum() + writes.sum()) / time, reads.sum() / time, writes.sum() / time);
+        }
+
+        manager.storeChanges(true);
+        manager.close();
+        System.setOut(console);
+        System.exit(0);
+    }
+}
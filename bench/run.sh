@@ -0,0 +1,9 @@
+#!/bin/sh
+# Compiles the sources together with the benchmarks and runs TaskBenchmarks with the given arguments.
+# Usage: bench/run.sh [-f forks] [-wi warmup iterations] [-i iterations] [-r iteration ms] [-o results.csv] [name regex...]
+set -e
+root=$(cd "$(dirname "$0")/.." && pwd)
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+javac -encoding UTF-8 -cp "$root/lib/*" -d "$out" "$root"/src/*.java "$root"/bench/*.java
+java -cp "$out:$root/lib/*" TaskBenchmarks "$@"
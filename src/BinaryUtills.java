@@ -0,0 +1,277 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/* Compact binary snapshot of the tasks list:
+
+       magic      4 bytes   "TASK"
+       header    varint length, then the header fields:
+                   version   4 bytes
+                   count     4 bytes
+                   index     8 bytes   position of the index
+       records   count times:
+                   id        varint
+                   flags     1 byte    DONE | HAS_DEADLINE | HAS_TITLE | HAS_DETAILS
+                   deadline  varlong   epoch millis, zigzag encoded, only if HAS_DEADLINE
+                   title     varint length, then UTF-8 bytes, only if HAS_TITLE
+                   details   varint length, then UTF-8 bytes, only if HAS_DETAILS
+       index     columns of count values each:
+                   offsets   4 bytes   position of the record
+                   deadlines 8 bytes   epoch millis or NO_DEADLINE
+                   done      1 bit     bitmap, rounded up to a byte
+
+   The header is length-prefixed, so readers skip the fields added by later versions
+   (the first files had no index, so their header is 8 bytes long).
+   The index lets MappedTaskFile filter the tasks without decoding the records.
+ */
+public class BinaryUtills {
+    public static final byte[] MAGIC = {'T', 'A', 'S', 'K'};
+    public static final String EXTENSION = ".tasks";
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int HEADER_POSITION = MAGIC.length + 1;
+    static final long NO_DEADLINE = TaskEntry.NO_DEADLINE;
+    private static final int STRING_BUFFER_SIZE = 1024;
+
+    static final int DONE = 1;
+    static final int HAS_DEADLINE = 2;
+    static final int HAS_TITLE = 4;
+    static final int HAS_DETAILS = 8;
+
+    public static LoadResult load(final String filename, final int limit) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(filename)), 1 << 16))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("not a tasks file");
+            }
+            int headerSize = readVarInt(in);
+            int version = in.readInt();
+            if (version > VERSION) {
+                throw new IOException("unsupported version " + version);
+            }
+            final int count = in.readInt();
+            in.skipNBytes(headerSize - 2 * Integer.BYTES);
+
+            final int number = Math.min(count, limit);
+            List<Task> loaded = new ArrayList<>(number);
+            byte[] buffer = new byte[STRING_BUFFER_SIZE];
+            for (int i = 0; i < number; i++) {
+                Task task = new Task(readVarInt(in));
+                int flags = in.readUnsignedByte();
+                task.setDone((flags & DONE) != 0);
+                if ((flags & HAS_DEADLINE) != 0) {
+                    task.setDeadlineMillis(readVarLong(in));
+                }
+                if ((flags & HAS_TITLE) != 0) {
+                    task.setTitle(readString(in, buffer));
+                }
+                if ((flags & HAS_DETAILS) != 0) {
+                    task.setDetails(readString(in, buffer));
+                }
+                loaded.add(task);
+            }
+
+            System.out.println("Loaded tasks from file " + filename + " successfully");
+            return new LoadResult(loaded, count - number);
+        } catch (EOFException e) {
+            System.out.println("Couldn't load tasks list: unexpected end of file");
+        } catch (IOException e) {
+            System.out.println("Couldn't load tasks list: " + e.getMessage());
+        }
+
+        return LoadResult.empty();
+    }
+
+    public static boolean store(Iterable<Task> tasks, final String filename) {
+        try {
+            write(tasks, filename);
+            System.out.println("Changes were saved successfully");
+            return true;
+        } catch (IOException e) {
+            System.out.println("Couldn't save changes to disk: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /* The same without the messages, for the files which are not shown to the user */
+    static void write(Iterable<Task> tasks, final String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.write(MAGIC);
+            writeVarInt(out, HEADER_SIZE);
+            out.write(new byte[HEADER_SIZE]);
+
+            int count = 0;
+            int[] offsets = new int[1024];
+            long[] deadlines = new long[1024];
+            BitSet done = new BitSet();
+            for (Task task : tasks) {
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                    deadlines = Arrays.copyOf(deadlines, count * 2);
+                }
+                if (out.position() > Integer.MAX_VALUE) {
+                    throw new IOException("file is too large");
+                }
+                offsets[count] = (int) out.position();
+                deadlines[count] = task.getDeadlineMillis();
+                done.set(count, task.isDone());
+                writeTask(out, task);
+                count++;
+            }
+
+            final long indexPosition = out.position();
+            for (int i = 0; i < count; i++) {
+                writeInt(out, offsets[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                writeLong(out, deadlines[i]);
+            }
+            byte[] bitmap = Arrays.copyOf(done.toByteArray(), (count + 7) / 8);
+            out.write(bitmap);
+            out.flush();
+
+            /* the number of tasks and the position of the index are known only now */
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(VERSION).putInt(count).putLong(indexPosition);
+            header.flip();
+            channel.write(header, HEADER_POSITION);
+        }
+    }
+
+    /* Checks the magic bytes at the beginning of the file */
+    public static boolean isBinary(final String filename) {
+        byte[] magic = new byte[MAGIC.length];
+        try (InputStream in = Files.newInputStream(Paths.get(filename))) {
+            return in.readNBytes(magic, 0, magic.length) == magic.length && Arrays.equals(magic, MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void writeTask(OutputStream out, Task task) throws IOException {
+        final long deadline = task.getDeadlineMillis();
+        int flags = (task.isDone() ? DONE : 0)
+                | (deadline != NO_DEADLINE ? HAS_DEADLINE : 0)
+                | (task.getTitle() != null ? HAS_TITLE : 0)
+                | (task.getDetails() != null ? HAS_DETAILS : 0);
+        writeVarInt(out, task.getId());
+        out.write(flags);
+        if (deadline != NO_DEADLINE) {
+            writeVarLong(out, deadline);
+        }
+        if (task.getTitle() != null) {
+            writeString(out, task.getTitle());
+        }
+        if (task.getDetails() != null) {
+            writeString(out, task.getDetails());
+        }
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        writeInt(out, (int) (value >>> 32));
+        writeInt(out, (int) value);
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long position = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long position() {
+            return position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            position++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            position += len;
+        }
+    }
+
+    static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static void writeVarLong(OutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7fL) != 0) {
+            out.write((int) ((zigzag & 0x7f) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.write((int) zigzag);
+    }
+
+    private static void writeString(OutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /* The buffer is reused for all the strings: a title is at most 20 chars and details are at most 200 chars,
+       so their UTF-8 bytes fit into 800 bytes in the worst case */
+    private static String readString(DataInputStream in, byte[] buffer) throws IOException {
+        int length = readVarInt(in);
+        byte[] bytes = (length <= buffer.length ? buffer : new byte[length]);
+        in.readFully(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Loaded tasks packed into columns: ids, done bits, deadlines and the references to the titles and the details.
+   Equal strings are kept once, so a list of recurring tasks ("standup", "weekly report") keeps a single copy
+   of every title. A task costs its Row and 20 bytes of the columns, while a Task takes 40 bytes
+   and usually two strings of its own.
+   The rows are read-only: a changed task is put into the store as a Task, as with the rows of a mapped file
+ */
+public class CompactTasks {
+    private final int[] ids;
+    private final long[] done;
+    private final long[] deadlines;
+    private final String[] titles;
+    private final String[] details;
+
+    /* A task of the columns, decoded into a Task only on demand */
+    public static class Row implements TaskEntry {
+        private final CompactTasks tasks;
+        private final int row;
+
+        Row(CompactTasks tasks, int row) {
+            this.tasks = tasks;
+            this.row = row;
+        }
+
+        @Override
+        public int getId() {
+            return tasks.ids[row];
+        }
+
+        @Override
+        public boolean isDone() {
+            return tasks.isDone(row);
+        }
+
+        @Override
+        public long getDeadlineMillis() {
+            return tasks.deadlines[row];
+        }
+
+        @Override
+        public Task toTask() {
+            return tasks.decode(row);
+        }
+    }
+
+    private CompactTasks(int count) {
+        ids = new int[count];
+        done = new long[(count + Long.SIZE - 1) / Long.SIZE];
+        deadlines = new long[count];
+        titles = new String[count];
+        details = new String[count];
+    }
+
+    /* Packs the tasks with the ids they have now */
+    public static CompactTasks pack(List<Task> tasks) {
+        CompactTasks packed = new CompactTasks(tasks.size());
+        Map<String, String> strings = new HashMap<>();
+        for (int row = 0; row < tasks.size(); row++) {
+            Task task = tasks.get(row);
+            packed.ids[row] = task.getId();
+            if (task.isDone()) {
+                packed.done[row / Long.SIZE] |= 1L << row;
+            }
+            packed.deadlines[row] = task.getDeadlineMillis();
+            packed.titles[row] = dedup(strings, task.getTitle());
+            packed.details[row] = dedup(strings, task.getDetails());
+        }
+        return packed;
+    }
+
+    private static String dedup(Map<String, String> strings, String string) {
+        return (string == null ? null : strings.computeIfAbsent(string, s -> s));
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public boolean isDone(int row) {
+        return (done[row / Long.SIZE] & (1L << row)) != 0;
+    }
+
+    public Row row(int row) {
+        return new Row(this, row);
+    }
+
+    public Task decode(int row) {
+        Task task = new Task(ids[row]);
+        task.setTitle(titles[row]);
+        task.setDetails(details[row]);
+        task.setDone(isDone(row));
+        task.setDeadlineMillis(deadlines[row]);
+        return task;
+    }
+}
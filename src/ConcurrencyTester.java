@@ -0,0 +1,138 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class ConcurrencyTester {
+    private static final int WRITERS = 8;
+    private static final int READERS = 2;
+    private static final int TASKS = 2000;
+    private static final int ADDS = 300;
+    private static final Pattern TASK_ID = Pattern.compile("^Task (\\d+)", Pattern.MULTILINE);
+
+    private static class Expected {
+        final String title;
+        final boolean done;
+
+        Expected(String title, boolean done) {
+            this.title = title;
+            this.done = done;
+        }
+    }
+
+    /* Every writer changes its own part of the loaded tasks and adds, marks and removes its own new ones */
+    private void write(TaskManager manager, int writer, Map<Integer, Expected> expected) {
+        Random rnd = new Random(writer);
+        for (int id = 1 + writer; id <= TASKS; id += WRITERS) {
+            switch (rnd.nextInt(3)) {
+                case 0:
+                    manager.processRequest("remove " + id);
+                    expected.remove(id);
+                    break;
+                case 1:
+                    manager.processRequest("done " + id);
+                    expected.put(id, new Expected(expected.get(id).title, true));
+                    break;
+                default:
+            }
+        }
+        for (int i = 0; i < ADDS; i++) {
+            final String title = "w" + writer + " " + i;
+            int id = manager.add(" -t " + title);
+            Assert.assertTrue(id > TASKS);
+            Assert.assertNull("id " + id + " was given twice", expected.put(id, new Expected(title, false)));
+            if (rnd.nextInt(3) == 0) {
+                manager.processRequest("done " + id);
+                expected.put(id, new Expected(title, true));
+            } else if (rnd.nextInt(3) == 0) {
+                manager.processRequest("remove " + id);
+                expected.remove(id);
+            }
+        }
+    }
+
+    /* A list is read from a snapshot, so it can't contain a task twice or be out of order */
+    private void read(TaskManager manager, AtomicBoolean writing) {
+        while (writing.get()) {
+            Matcher matcher = TASK_ID.matcher(manager.list(new HashSet<>()));
+            int last = 0;
+            while (matcher.find()) {
+                int id = Integer.parseInt(matcher.group(1));
+                Assert.assertTrue(id > last);
+                last = id;
+            }
+        }
+    }
+
+    private void check(Map<Integer, Expected> expected, TaskManager manager) {
+        List<Task> all = manager.cursor(new HashSet<>(), TaskQuery.Order.ID).next(Integer.MAX_VALUE);
+        Assert.assertEquals(expected.size(), all.size());
+        for (Task task : all) {
+            Expected model = expected.get(task.getId());
+            Assert.assertNotNull("unexpected task " + task.getId(), model);
+            Assert.assertEquals(model.title, task.getTitle());
+            Assert.assertEquals(model.done, task.isDone());
+        }
+    }
+
+    @Test
+    public void stressTest() throws InterruptedException, TaskException {
+        List<Task> initial = new ArrayList<>();
+        Map<Integer, Expected> expected = new ConcurrentHashMap<>();
+        for (int id = 1; id <= TASKS; id++) {
+            initial.add(new Task(id, "task " + id, null, null));
+            expected.put(id, new Expected("task " + id, false));
+        }
+        JsonUtills.store(initial, TaskManager.TODO_LIST_FILE);
+        TaskManager manager = new TaskManager();
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CountDownLatch writers = new CountDownLatch(WRITERS);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < WRITERS + READERS; i++) {
+            final int writer = i;
+            threads.add(new Thread(() -> {
+                try {
+                    if (writer < WRITERS) {
+                        write(manager, writer, expected);
+                    } else {
+                        read(manager, writing);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    if (writer < WRITERS) {
+                        writers.countDown();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        writers.await();
+        writing.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        check(expected, manager);
+
+        /* the journal must have got the changes in the same order as the list */
+        manager.close();
+        TaskManager restored = new TaskManager();
+        Assert.assertEquals(manager.list(new HashSet<>()), restored.list(new HashSet<>()));
+        restored.close();
+    }
+}
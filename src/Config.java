@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/* The limits of the manager. They are read from todo.properties of the working directory:
+
+       capacity = 10000000     the maximum number of tasks in the list
+       memory = 256m           the heap for the tasks kept as objects, the rest are spilled to disk
+       compact = true          keep the loaded tasks in columns, see CompactTasks
+       slots = true            keep the list in fixed slots and rewrite only the changed tasks, see SlotFile
+       pretty = false          write the JSON snapshots without the indentation
+       compress = true         write the JSON snapshots compressed with gzip
+       shards = 4              split the list into shards with their own threads and files, see ShardedTaskManager
+
+   The system properties with the same names and the "todo." prefix (-Dtodo.memory=1g) override the file.
+   The memory is given in bytes, with an optional k, m or g suffix
+ */
+public class Config {
+    public static final String FILE = "todo.properties";
+    public static final int DEFAULT_CAPACITY = 10_000_000;
+    /* The heap which a task with a short title and details takes, with its strings and its slot in the store */
+    public static final int TASK_BYTES = 200;
+
+    private final int capacity;
+    private final long memory;
+    private final boolean compact;
+    private final boolean slots;
+    private final boolean pretty;
+    private final boolean compress;
+    private final int shards;
+
+    public Config(int capacity, long memory, boolean compact) {
+        this(capacity, memory, compact, false, true, false, 1);
+    }
+
+    private Config(int capacity, long memory, boolean compact, boolean slots, boolean pretty, boolean compress, int shards) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        if (memory < TASK_BYTES) {
+            throw new IllegalArgumentException("Memory must hold at least one task: " + memory);
+        }
+        if (shards <= 0 || shards > capacity) {
+            throw new IllegalArgumentException("Shards must be between 1 and the capacity: " + shards);
+        }
+        this.capacity = capacity;
+        this.memory = memory;
+        this.compact = compact;
+        this.slots = slots;
+        this.pretty = pretty;
+        this.compress = compress;
+        this.shards = shards;
+    }
+
+    /* A quarter of the heap is left to the tasks by default */
+    public static Config defaults() {
+        return new Config(DEFAULT_CAPACITY, Runtime.getRuntime().maxMemory() / 4, false);
+    }
+
+    public static Config load() {
+        return load(Paths.get(FILE));
+    }
+
+    /* A missing or broken file leaves the defaults */
+    public static Config load(Path file) {
+        Properties properties = new Properties();
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file)) {
+                properties.load(reader);
+            } catch (IOException e) {
+                System.out.println("Couldn't read " + file + ": " + e.getMessage());
+            }
+        }
+        Config defaults = defaults();
+        try {
+            return new Config(Integer.parseInt(property(properties, "capacity", Integer.toString(defaults.capacity))),
+                    parseMemory(property(properties, "memory", Long.toString(defaults.memory))),
+                    Boolean.parseBoolean(property(properties, "compact", Boolean.toString(defaults.compact))),
+                    Boolean.parseBoolean(property(properties, "slots", Boolean.toString(defaults.slots))),
+                    Boolean.parseBoolean(property(properties, "pretty", Boolean.toString(defaults.pretty))),
+                    Boolean.parseBoolean(property(properties, "compress", Boolean.toString(defaults.compress))),
+                    Integer.parseInt(property(properties, "shards", Integer.toString(defaults.shards))));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Couldn't apply " + file + ": " + e.getMessage());
+            return defaults;
+        }
+    }
+
+    private static String property(Properties properties, final String name, final String fallback) {
+        return System.getProperty("todo." + name, properties.getProperty(name, fallback)).trim();
+    }
+
+    static long parseMemory(final String memory) {
+        if (memory.isEmpty()) {
+            throw new NumberFormatException("Memory is empty");
+        }
+        final String digits = memory.substring(0, memory.length() - 1);
+        switch (Character.toLowerCase(memory.charAt(memory.length() - 1))) {
+            case 'k':
+                return Long.parseLong(digits) << 10;
+            case 'm':
+                return Long.parseLong(digits) << 20;
+            case 'g':
+                return Long.parseLong(digits) << 30;
+            default:
+                return Long.parseLong(memory);
+        }
+    }
+
+    public Config withCompact(boolean compact) {
+        return new Config(capacity, memory, compact, slots, pretty, compress, shards);
+    }
+
+    public Config withSlots(boolean slots) {
+        return new Config(capacity, memory, compact, slots, pretty, compress, shards);
+    }
+
+    public Config withPretty(boolean pretty) {
+        return new Config(capacity, memory, compact, slots, pretty, compress, shards);
+    }
+
+    public Config withCompress(boolean compress) {
+        return new Config(capacity, memory, compact, slots, pretty, compress, shards);
+    }
+
+    public Config withShards(int shards) {
+        return new Config(capacity, memory, compact, slots, pretty, compress, shards);
+    }
+
+    /* The limits of one shard: the capacity and the memory are split evenly, as the new tasks are */
+    public Config forShard() {
+        return new Config((capacity + shards - 1) / shards, Math.max(TASK_BYTES, memory / shards),
+                compact, slots, pretty, compress, 1);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getMemory() {
+        return memory;
+    }
+
+    /* The number of the tasks which are kept as objects before the cold ones are spilled */
+    public int getHeapTasks() {
+        return (int) Math.min(Integer.MAX_VALUE, memory / TASK_BYTES);
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public boolean isSlots() {
+        return slots;
+    }
+
+    public boolean isPretty() {
+        return pretty;
+    }
+
+    public boolean isCompress() {
+        return compress;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    /* The format of the snapshots which fit into the memory, unless they are kept in the slots */
+    public TaskFormat getJsonFormat() {
+        return compress ? TaskFormat.GZIP : pretty ? TaskFormat.JSON : TaskFormat.COMPACT_JSON;
+    }
+}
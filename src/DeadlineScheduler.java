@@ -0,0 +1,224 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/* Tells the listeners when the deadlines pass.
+   Only a window of the nearest deadlines is kept sorted together with the ids of their tasks, so the memory
+   does not grow with the list: every task has at most one deadline in the window, and a deadline is scheduled
+   and cancelled in O(log w). The deadlines later than the window are not kept at all; when the window runs out,
+   the worker reads the next ones from the source, that is from the list itself.
+   The worker thread sleeps until the earliest deadline and looks at nothing but the deadlines which have passed.
+   A deadline passes a millisecond after its time, as TaskEntry.isExpired tells
+ */
+public class DeadlineScheduler {
+    public interface Listener {
+        void expired(int id, long deadline);
+    }
+
+    public interface Deadline {
+        void accept(int id, long deadline);
+    }
+
+    /* Lists the deadlines of all the undone tasks, including the ones which have passed.
+       Called on the worker thread: the deadlines must not change while they are listed, so the source
+       takes the lock under which they are scheduled and cancelled
+     */
+    public interface Source {
+        void forEach(Deadline action);
+    }
+
+    private static class Pending {
+        final int id;
+        final long deadline;
+
+        Pending(int id, long deadline) {
+            this.id = id;
+            this.deadline = deadline;
+        }
+    }
+
+    private static final Comparator<Pending> ORDER = Comparator.comparingLong((Pending pending) -> pending.deadline)
+            .thenComparingInt(pending -> pending.id);
+    static final int WINDOW = 1024;
+
+    private final TreeSet<Pending> queue = new TreeSet<>(ORDER);
+    private final Map<Integer, Pending> byId = new HashMap<>();
+    /* every pending deadline up to the horizon is in the window, null if all of them are */
+    private Pending horizon = null;
+    /* the tasks which were scheduled or cancelled while the source was read, what was read of them is stale */
+    private final Set<Integer> touched = new HashSet<>();
+    private boolean refilling = false;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final String name;
+    private final Source source;
+    private final int window;
+    private Thread worker;
+    private boolean stopped;
+
+    public DeadlineScheduler(final String name, Source source) {
+        this(name, source, WINDOW);
+    }
+
+    DeadlineScheduler(final String name, Source source, int window) {
+        this.name = name;
+        this.source = source;
+        this.window = window;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /* Replaces the deadline of the task; the deadlines which have already passed are not scheduled */
+    public synchronized void schedule(int id, long deadline) {
+        cancel(id);
+        if (deadline == TaskEntry.NO_DEADLINE || deadline < System.currentTimeMillis()) {
+            return;
+        }
+        Pending pending = new Pending(id, deadline);
+        /* a deadline beyond the window is read from the source when its turn comes */
+        if (!refilling && horizon != null && ORDER.compare(pending, horizon) > 0) {
+            return;
+        }
+        queue.add(pending);
+        byId.put(id, pending);
+        if (!refilling) {
+            trim();
+        }
+        if (worker == null) {
+            stopped = false;
+            worker = new Thread(this::run, "deadlines " + name);
+            worker.setDaemon(true);
+            worker.start();
+        } else if (queue.first() == pending) {
+            notifyAll();
+        }
+    }
+
+    public synchronized void cancel(int id) {
+        if (refilling) {
+            touched.add(id);
+        }
+        Pending pending = byId.remove(id);
+        if (pending != null) {
+            queue.remove(pending);
+        }
+    }
+
+    /* The number of the deadlines in the window */
+    public synchronized int pending() {
+        return queue.size();
+    }
+
+    /* Stops the worker, the deadlines which have not passed are forgotten */
+    public void close() {
+        Thread stopping;
+        synchronized (this) {
+            stopping = worker;
+            stopped = true;
+            worker = null;
+            notifyAll();
+        }
+        if (stopping != null && stopping != Thread.currentThread()) {
+            try {
+                stopping.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /* The latest deadlines are dropped until the window fits, the horizon moves back to the last one kept */
+    private void trim() {
+        while (horizon != null && !queue.isEmpty() && ORDER.compare(queue.last(), horizon) > 0) {
+            byId.remove(queue.pollLast().id);
+        }
+        while (queue.size() > window) {
+            byId.remove(queue.pollLast().id);
+            horizon = queue.last();
+        }
+    }
+
+    /* Reads the nearest deadlines beyond the horizon into the empty window.
+       The source is read without the scheduler's lock, as the tasks are changed under the source's lock first
+     */
+    private void refill(Pending after) {
+        TreeSet<Pending> nearest = new TreeSet<>(ORDER);
+        source.forEach((id, deadline) -> {
+            Pending pending = new Pending(id, deadline);
+            if (ORDER.compare(pending, after) > 0) {
+                nearest.add(pending);
+                if (nearest.size() > window) {
+                    nearest.pollLast();
+                }
+            }
+        });
+        synchronized (this) {
+            for (Pending pending : nearest) {
+                if (!touched.contains(pending.id)) {
+                    queue.add(pending);
+                    byId.put(pending.id, pending);
+                }
+            }
+            horizon = (nearest.size() < window ? null : nearest.last());
+            touched.clear();
+            refilling = false;
+            trim();
+        }
+    }
+
+    private void run() {
+        List<Pending> passed = new ArrayList<>();
+        while (true) {
+            Pending refillAfter = null;
+            synchronized (this) {
+                try {
+                    while (!stopped) {
+                        final long now = System.currentTimeMillis();
+                        if (queue.isEmpty() ? horizon != null : queue.first().deadline < now) {
+                            break;
+                        }
+                        wait(queue.isEmpty() ? 0 : queue.first().deadline - now + 1);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (stopped) {
+                    return;
+                }
+                if (queue.isEmpty()) {
+                    refillAfter = horizon;
+                    refilling = true;
+                } else {
+                    final long now = System.currentTimeMillis();
+                    while (!queue.isEmpty() && queue.first().deadline < now) {
+                        Pending pending = queue.pollFirst();
+                        byId.remove(pending.id);
+                        passed.add(pending);
+                    }
+                }
+            }
+            if (refillAfter != null) {
+                refill(refillAfter);
+                continue;
+            }
+            /* the listeners are called without the lock, so they may schedule and cancel the deadlines */
+            for (Pending pending : passed) {
+                for (Listener listener : listeners) {
+                    try {
+                        listener.expired(pending.id, pending.deadline);
+                    } catch (RuntimeException e) {
+                        System.out.println("Couldn't notify about the deadline of task " + pending.id + ": " + e);
+                    }
+                }
+            }
+            passed.clear();
+        }
+    }
+}
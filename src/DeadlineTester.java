@@ -0,0 +1,147 @@
+import com.google.gson.Gson;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class DeadlineTester {
+    private static Random rnd = new Random();
+
+    @Test
+    public void formatTest() throws TaskException {
+        Gson gson = new Gson();
+        DateTimeFormatter legacy = DateTimeFormatter.ofPattern("MMM d, uuuu, h:mm:ss a", Locale.US);
+        int testNumber = 10000;
+        while (testNumber-- > 0) {
+            LocalDateTime time = LocalDateTime.of(1970 + rnd.nextInt(100), 1 + rnd.nextInt(12), 1 + rnd.nextInt(28),
+                    rnd.nextBoolean() ? 0 : rnd.nextInt(24), rnd.nextBoolean() ? 0 : rnd.nextInt(60), rnd.nextBoolean() ? 0 : rnd.nextInt(60));
+            final long millis = time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            Task task = new Task(1, "title", null, Deadlines.format(millis) + (rnd.nextBoolean() ? " and the rest" : ""));
+            Assert.assertEquals(time.toString(), millis, task.getDeadlineMillis());
+
+            Task read = gson.fromJson(gson.toJson(task), Task.class);
+            Assert.assertEquals(millis, read.getDeadlineMillis());
+            Assert.assertEquals(task.display(), read.display());
+
+            read = gson.fromJson("{\"id\": 1, \"deadline\": \"" + legacy.format(time) + "\"}", Task.class);
+            Assert.assertEquals(millis, read.getDeadlineMillis());
+        }
+        Assert.assertEquals(TaskEntry.NO_DEADLINE, gson.fromJson("{\"id\": 1}", Task.class).getDeadlineMillis());
+        Assert.assertEquals(TaskEntry.NO_DEADLINE, gson.fromJson(gson.toJson(new Task(1)), Task.class).getDeadlineMillis());
+    }
+
+    @Test
+    public void schedulerTest() throws InterruptedException {
+        /* the window is smaller than the number of the deadlines, so the later ones are read from the source */
+        final int window = 64;
+        Map<Integer, Long> expected = new HashMap<>();
+        DeadlineScheduler scheduler = new DeadlineScheduler("test", action -> {
+            synchronized (expected) {
+                expected.forEach(action::accept);
+            }
+        }, window);
+        Map<Integer, Long> fired = new ConcurrentHashMap<>();
+        Set<Integer> early = ConcurrentHashMap.newKeySet();
+        Set<Integer> twice = ConcurrentHashMap.newKeySet();
+        scheduler.addListener((id, deadline) -> {
+            if (System.currentTimeMillis() <= deadline) {
+                early.add(id);
+            }
+            if (fired.put(id, deadline) != null) {
+                twice.add(id);
+            }
+        });
+
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < 5000; i++) {
+            final int id = rnd.nextInt(2000);
+            synchronized (expected) {
+                if (rnd.nextInt(4) == 0) {
+                    scheduler.cancel(id);
+                    expected.remove(id);
+                } else {
+                    final long deadline = start + 100 + rnd.nextInt(400);
+                    scheduler.schedule(id, deadline);
+                    expected.put(id, deadline);
+                }
+            }
+            Assert.assertTrue(scheduler.pending() <= window);
+        }
+        /* the deadlines which have passed are not scheduled */
+        scheduler.schedule(5000, start - 1);
+        scheduler.schedule(5001, TaskEntry.NO_DEADLINE);
+
+        while (System.currentTimeMillis() < start + 700) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(0, scheduler.pending());
+        Assert.assertTrue(early.isEmpty());
+        Assert.assertTrue(twice.isEmpty());
+        Assert.assertEquals(expected, fired);
+        scheduler.close();
+    }
+
+    @Test
+    public void expiryTest() throws IOException, InterruptedException {
+        final long soon = System.currentTimeMillis() + 2000;
+        List<Task> tasks = new ArrayList<>();
+        Set<Integer> expected = new HashSet<>();
+        /* more deadlines than the window holds, so the manager is asked for the later ones */
+        for (int id = 1; id <= 4 * DeadlineScheduler.WINDOW; id++) {
+            Task task = new Task(id);
+            task.setTitle("task " + id);
+            switch (id % 4) {
+                case 0:
+                    task.setDeadlineMillis(soon);
+                    expected.add(id);
+                    break;
+                case 1:
+                    task.setDeadlineMillis(soon);
+                    task.setDone(true);
+                    break;
+                case 2:
+                    task.setDeadlineMillis(soon + 24L * 60 * 60 * 1000);
+                    break;
+                default:
+            }
+            tasks.add(task);
+        }
+        JsonUtills.store(tasks, TaskManager.TODO_LIST_FILE);
+        Files.deleteIfExists(Paths.get(TaskManager.TODO_LIST_FILE + TaskManager.JOURNAL_SUFFIX));
+
+        TaskManager manager = new TaskManager();
+        Set<Integer> fired = ConcurrentHashMap.newKeySet();
+        Set<Integer> early = ConcurrentHashMap.newKeySet();
+        manager.addExpiryListener(task -> {
+            if (!task.isExpired()) {
+                early.add(task.getId());
+            }
+            fired.add(task.getId());
+        });
+        manager.remove(4);
+        manager.markAsDone(8);
+        expected.remove(4);
+        expected.remove(8);
+
+        while (System.currentTimeMillis() < soon + 500) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(expected, fired);
+        Assert.assertTrue(early.isEmpty());
+        manager.close();
+    }
+}
@@ -0,0 +1,91 @@
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.Locale;
+
+/* The deadlines are kept as epoch millis rounded to seconds and converted to text only here.
+   The formatters are immutable and thread-safe, so they are created once and shared by all the tasks
+ */
+public class Deadlines {
+    /* The format of the add request: the time is optional and the rest of the request after the date is ignored.
+       As with the old SimpleDateFormat, 31/2/2020 is the 2nd of March
+     */
+    private static final DateTimeFormatter INPUT = DateTimeFormatter.ofPattern("d/M/u[ H:mm[:ss]]")
+            .withResolverStyle(ResolverStyle.LENIENT);
+    private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("dd/MM/uuuu");
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("dd/MM/uuuu HH:mm:ss");
+    /* The way Gson stored java.util.Date in the files written before: "May 21, 2019, 12:00:00 AM" */
+    private static final DateTimeFormatter LEGACY = DateTimeFormatter.ofPattern("MMM d, u[,] h:mm:ss a", Locale.US);
+
+    private Deadlines() {
+    }
+
+    public static long parse(final String deadline) throws TaskException {
+        try {
+            TemporalAccessor parsed = INPUT.parse(deadline, new ParsePosition(0));
+            LocalDateTime time = LocalDate.from(parsed).atTime(parsed.isSupported(ChronoField.HOUR_OF_DAY)
+                    ? LocalTime.from(parsed) : LocalTime.MIDNIGHT);
+            return toMillis(time);
+        } catch (DateTimeException e) {
+            throw new TaskException("Illegal date format");
+        }
+    }
+
+    /* Midnight deadlines are shown as dates, the way they are usually entered */
+    public static String format(long deadline) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(deadline), ZoneId.systemDefault());
+        return (time.toLocalTime().equals(LocalTime.MIDNIGHT) ? DATE : DATE_TIME).format(time);
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toEpochSecond() * 1000;
+    }
+
+    /* Writes the deadlines as ISO dates with the offset, so the file means the same in any time zone.
+       Reads those, the epoch millis and the dates of the files written with java.util.Date
+     */
+    public static class JsonAdapter extends TypeAdapter<Long> {
+        @Override
+        public void write(JsonWriter out, Long deadline) throws IOException {
+            if (deadline == null || deadline == TaskEntry.NO_DEADLINE) {
+                out.nullValue();
+                return;
+            }
+            out.value(DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(
+                    OffsetDateTime.ofInstant(Instant.ofEpochMilli(deadline), ZoneId.systemDefault())));
+        }
+
+        @Override
+        public Long read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NUMBER) {
+                return in.nextLong();
+            }
+            final String text = in.nextString();
+            try {
+                if (!text.isEmpty() && Character.isDigit(text.charAt(0))) {
+                    return OffsetDateTime.parse(text, DateTimeFormatter.ISO_OFFSET_DATE_TIME).toInstant().toEpochMilli();
+                }
+                /* newer JDKs put a narrow no-break space before AM/PM */
+                return toMillis(LocalDateTime.parse(text.replace('\u202f', ' '), LEGACY));
+            } catch (DateTimeException e) {
+                throw new JsonSyntaxException("Illegal deadline " + text + " at " + in.getPath());
+            }
+        }
+    }
+}
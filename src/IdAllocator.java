@@ -0,0 +1,57 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Hands out task ids without looking into the list.
+   The ids only grow while the program runs, so an id of a removed task is not given to another one
+   (after a restart the ids are assigned anew, as the list is loaded).
+   The allocator of a shard gives out only the ids of its own blocks, see ShardedTaskManager
+ */
+public class IdAllocator {
+    /* a block fills two levels of TaskStore, so the store of a shard is as dense as the one of the whole list */
+    static final int BLOCK_IDS = 1 << 10;
+    public static final int NO_ID = -1;
+
+    private final AtomicInteger last = new AtomicInteger();
+    private final int shard;
+    private final int shards;
+
+    public IdAllocator() {
+        this(0, 1);
+    }
+
+    /* Takes the blocks shard, shard + shards, shard + 2 * shards and so on */
+    public IdAllocator(int shard, int shards) {
+        this.shard = shard;
+        this.shards = shards;
+    }
+
+    public static int shardOf(int id, int shards) {
+        return Math.floorMod(id / BLOCK_IDS, shards);
+    }
+
+    /* Returns NO_ID when the ids have run out: the ids kept from a file may reach Integer.MAX_VALUE */
+    public int next() {
+        while (true) {
+            final int id = last.get();
+            final long next = following(id);
+            if (next > Integer.MAX_VALUE) {
+                return NO_ID;
+            }
+            if (last.compareAndSet(id, (int) next)) {
+                return (int) next;
+            }
+        }
+    }
+
+    /* The least id of the shard which is greater than the given one, it may not fit into an int */
+    private long following(int id) {
+        final long next = id + 1L;
+        final long block = next / BLOCK_IDS;
+        final long skipped = Math.floorMod(shard - block, (long) shards);
+        return (skipped == 0 ? next : (block + skipped) * BLOCK_IDS);
+    }
+
+    /* Makes sure that the ids which are already taken are not given out again */
+    public void advanceTo(int id) {
+        last.accumulateAndGet(id, Math::max);
+    }
+}
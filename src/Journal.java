@@ -0,0 +1,207 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/* Append-only log of the changes made since the last snapshot of the tasks list.
+   The header remembers the stamp (size and modification time) of the snapshot the log was started for:
+   if the snapshot was rewritten, but the log was not restarted (e.g. the program was killed in between),
+   the log is outdated and is ignored.
+ */
+public class Journal {
+    public interface Listener {
+        void added(Task task);
+
+        void removed(int id);
+
+        void done(int id);
+    }
+
+    private static final int MAGIC = 0x544d4a31;
+    private static final byte ADD = 'A';
+    private static final byte REMOVE = 'R';
+    private static final byte DONE = 'D';
+
+    private final Path path;
+    private DataOutputStream out;
+    private int entries = 0;
+    /* the bytes of the streams which were closed */
+    private long written = 0;
+
+    public Journal(final String filename) {
+        this.path = Paths.get(filename);
+    }
+
+    /* Number of changes written since the journal was started */
+    public int size() {
+        return entries;
+    }
+
+    /* Bytes written since the journal was created */
+    public long written() {
+        return written + (out == null ? 0 : out.size());
+    }
+
+    /* Applies the logged changes to the listener and returns their number */
+    public int replay(long snapshotStamp, Listener listener) {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        int replayed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                System.out.println("Warning: " + path + " is not a journal file, it is ignored");
+                return 0;
+            }
+            if (in.readLong() != snapshotStamp) {
+                System.out.println("Warning: " + path + " was written for another version of the tasks list, it is ignored");
+                return 0;
+            }
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                switch (op) {
+                    case ADD:
+                        listener.added(readTask(in));
+                        break;
+                    case REMOVE:
+                        listener.removed(in.readInt());
+                        break;
+                    case DONE:
+                        listener.done(in.readInt());
+                        break;
+                    default:
+                        throw new IOException("unknown journal entry " + op);
+                }
+                replayed++;
+            }
+        } catch (EOFException e) {
+            System.out.println("Warning: the last change in " + path + " was not written completely, it is ignored");
+        } catch (IOException e) {
+            System.out.println("Couldn't replay journal: " + e.getMessage());
+        }
+        return replayed;
+    }
+
+    /* Truncates the journal, so that it continues the snapshot with the given stamp */
+    public void start(long snapshotStamp) {
+        close();
+        try (DataOutputStream header = new DataOutputStream(Files.newOutputStream(path))) {
+            header.writeInt(MAGIC);
+            header.writeLong(snapshotStamp);
+        } catch (IOException e) {
+            System.out.println("Couldn't start journal: " + e.getMessage());
+        }
+        entries = 0;
+    }
+
+    /* Used when the snapshot is changed in place instead, so there is nothing to log */
+    public void delete() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.out.println("Couldn't delete journal: " + e.getMessage());
+        }
+        entries = 0;
+    }
+
+    private DataOutputStream output() throws IOException {
+        if (out == null) {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile(), true)));
+        }
+        return out;
+    }
+
+    public void added(Task task) {
+        try {
+            DataOutputStream out = output();
+            out.writeByte(ADD);
+            writeTask(out, task);
+            entries++;
+        } catch (IOException e) {
+            System.out.println("Couldn't write to journal: " + e.getMessage());
+        }
+    }
+
+    public void removed(int id) {
+        write(REMOVE, id);
+    }
+
+    public void done(int id) {
+        write(DONE, id);
+    }
+
+    private void write(byte op, int id) {
+        try {
+            DataOutputStream out = output();
+            out.writeByte(op);
+            out.writeInt(id);
+            entries++;
+        } catch (IOException e) {
+            System.out.println("Couldn't write to journal: " + e.getMessage());
+        }
+    }
+
+    public void flush() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            System.out.println("Couldn't write to journal: " + e.getMessage());
+        }
+    }
+
+    public void close() {
+        if (out == null) {
+            return;
+        }
+        written += out.size();
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.out.println("Couldn't write to journal: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    private static void writeTask(DataOutputStream out, Task task) throws IOException {
+        out.writeInt(task.getId());
+        writeString(out, task.getTitle());
+        writeString(out, task.getDetails());
+        out.writeBoolean(task.isDone());
+        out.writeLong(task.getDeadlineMillis());
+    }
+
+    private static Task readTask(DataInputStream in) throws IOException {
+        Task task = new Task(in.readInt());
+        task.setTitle(readString(in));
+        task.setDetails(readString(in));
+        task.setDone(in.readBoolean());
+        task.setDeadlineMillis(in.readLong());
+        return task;
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        out.writeBoolean(str != null);
+        if (str != null) {
+            out.writeUTF(str);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
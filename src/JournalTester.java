@@ -0,0 +1,105 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+public class JournalTester {
+    private static Random rnd = new Random();
+
+    /* The ids are reassigned on load, so only the contents and the order of the tasks are compared */
+    private String withoutIds(String list) {
+        return list.replaceAll("Task \\d+", "Task");
+    }
+
+    private List<Task> generateTasks(int number) {
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < number; i++) {
+            try {
+                Task task = new Task(rnd.nextInt(number), "task " + i, "details " + rnd.nextInt(), rnd.nextInt(28) + 1 + "/05/2019");
+                task.setDone(rnd.nextBoolean());
+                tasks.add(task);
+            } catch (TaskException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return tasks;
+    }
+
+    private String randomRequest(int idLimit) {
+        switch (rnd.nextInt(3)) {
+            case 0:
+                return "add -t title " + rnd.nextInt(100) + " -dt details " + rnd.nextInt() + " -dl 1/1/2030";
+            case 1:
+                return "remove " + (1 + rnd.nextInt(idLimit));
+            default:
+                return "done " + (1 + rnd.nextInt(idLimit));
+        }
+    }
+
+    @Test
+    public void crashRecoveryTest() {
+        int testNumber = 20;
+        while (testNumber-- > 0) {
+            final int size = 100;
+            JsonUtills.store(generateTasks(size), TaskManager.TODO_LIST_FILE);
+
+            TaskManager crashed = new TaskManager();
+            for (int i = 0; i < 200; i++) {
+                crashed.processRequest(randomRequest(size * 2));
+            }
+            /* the list is not stored: only the queued changes are written, as if the program was terminated */
+            crashed.close();
+
+            TaskManager restored = new TaskManager();
+            Assert.assertEquals(crashed.list(new HashSet<>()), restored.list(new HashSet<>()));
+            restored.storeChanges(true);
+            restored.close();
+        }
+    }
+
+    /* A snapshot written in the middle of a session keeps the ids, so the changes logged after it
+       refer to the same tasks after a restart
+     */
+    @Test
+    public void compactedJournalTest() {
+        int testNumber = 10;
+        while (testNumber-- > 0) {
+            final int size = 100;
+            JsonUtills.store(generateTasks(size), TaskManager.TODO_LIST_FILE);
+
+            TaskManager crashed = new TaskManager();
+            for (int i = 0; i < 100; i++) {
+                crashed.processRequest("remove " + (1 + rnd.nextInt(size)));
+            }
+            crashed.storeChanges(true);
+            for (int i = 0; i < 100; i++) {
+                crashed.processRequest(randomRequest(size * 2));
+            }
+            crashed.close();
+
+            TaskManager restored = new TaskManager();
+            Assert.assertEquals(crashed.list(new HashSet<>()), restored.list(new HashSet<>()));
+            restored.storeChanges(true);
+            restored.close();
+        }
+    }
+
+    @Test
+    public void outdatedJournalTest() {
+        JsonUtills.store(generateTasks(10), TaskManager.TODO_LIST_FILE);
+        TaskManager manager = new TaskManager();
+        manager.processRequest("remove 1 2 3");
+        manager.close();
+
+        List<Task> replaced = generateTasks(20);
+        JsonUtills.store(replaced, TaskManager.TODO_LIST_FILE);
+        String expected = withoutIds(new TaskManager().list(new HashSet<>()));
+
+        StringBuilder sb = new StringBuilder();
+        replaced.forEach(task -> sb.append(task.display()));
+        Assert.assertEquals(withoutIds(sb.toString()), expected);
+    }
+}
@@ -1,48 +1,138 @@
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
 import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import com.google.gson.stream.JsonWriter;
-import com.google.gson.stream.MalformedJsonException;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.IOException;
-import java.net.SocketAddress;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+/* The tasks lists in JSON, either as they are or compressed with gzip. A compressed file is recognized by its
+   magic bytes and is inflated while it is read, so it is never kept in memory as a whole, neither is the text
+   of a compressed file which is written
+ */
 public class JsonUtills {
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int BUFFER_SIZE = 1 << 16;
+
     public static List<Task> load(final String filename) {
+        return load(filename, Integer.MAX_VALUE).getTasks();
+    }
+
+    /* Reads tasks one by one, so only the tasks that fit into the limit are ever materialized.
+       The rest of the array is skipped token by token, just to count the records that were left behind
+     */
+    public static LoadResult load(final String filename, final int limit) {
         Gson gson = new Gson();
-        List<Task> loaded = new ArrayList<>();
-        try (JsonReader reader = gson.newJsonReader(Files.newBufferedReader(Paths.get(filename)))) {
-            Task[] raw = gson.fromJson(reader, Task[].class);
-            if (raw == null) {
+        TypeAdapter<Task> adapter = gson.getAdapter(Task.class);
+        try (JsonReader reader = gson.newJsonReader(open(Paths.get(filename)))) {
+            if (isEmpty(reader)) {
                 throw new IOException("file is empty");
             }
-            loaded = new ArrayList<>(Arrays.asList(raw));
+            List<Task> loaded = new ArrayList<>();
+            int skipped = 0;
+
+            reader.beginArray();
+            while (reader.hasNext()) {
+                if (loaded.size() < limit) {
+                    Task task = adapter.read(reader);
+                    if (task != null) {
+                        loaded.add(task);
+                    }
+                } else {
+                    reader.skipValue();
+                    skipped++;
+                }
+            }
+            reader.endArray();
 
             System.out.println("Loaded tasks from file " + filename + " successfully");
+            return new LoadResult(loaded, skipped);
         } catch (IOException e) {
             System.out.println("Couldn't load tasks list: " + e.getMessage());
-        } catch (JsonSyntaxException e) {
+        } catch (JsonSyntaxException | IllegalStateException e) {
             System.out.println("Error parsing json: " + e.getMessage());
         }
 
-        return loaded;
+        return LoadResult.empty();
+    }
+
+    private static boolean isEmpty(JsonReader reader) throws IOException {
+        try {
+            return reader.peek() == JsonToken.END_DOCUMENT;
+        } catch (EOFException e) {
+            return true;
+        }
+    }
+
+    private static Reader open(Path path) throws IOException {
+        if (!isGzip(path.toString())) {
+            return Files.newBufferedReader(path);
+        }
+        InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE), BUFFER_SIZE);
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /* Checks the magic bytes of gzip at the beginning of the file */
+    public static boolean isGzip(final String filename) {
+        try (InputStream in = Files.newInputStream(Paths.get(filename))) {
+            return (in.read() | (in.read() << 8)) == GZIP_MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
     }
 
-    public static void store(List<Task> tasks, final String filename) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+    public static boolean store(Iterable<Task> tasks, final String filename) {
+        return store(tasks, filename, true, false);
+    }
 
-        try (JsonWriter writer = gson.newJsonWriter(Files.newBufferedWriter(Paths.get(filename)))) {
-            gson.toJson(tasks.toArray(), Task[].class, writer);
+    /* Pretty printing is for the people who read the file, the programs don't need its whitespace */
+    public static boolean store(Iterable<Task> tasks, final String filename, boolean pretty, boolean gzip) {
+        GsonBuilder builder = new GsonBuilder();
+        if (pretty) {
+            builder.setPrettyPrinting();
+        }
+        Gson gson = builder.create();
+        TypeAdapter<Task> adapter = gson.getAdapter(Task.class);
+
+        try (JsonWriter writer = gson.newJsonWriter(create(Paths.get(filename), gzip))) {
+            writer.beginArray();
+            for (Task task : tasks) {
+                adapter.write(writer, task);
+            }
+            writer.endArray();
             System.out.println("Changes were saved successfully");
+            return true;
         } catch (IOException e) {
             System.out.println("Couldn't save changes to disk: " + e.getMessage());
         }
+        return false;
+    }
+
+    private static Writer create(Path path, boolean gzip) throws IOException {
+        if (!gzip) {
+            return Files.newBufferedWriter(path);
+        }
+        OutputStream out = new GZIPOutputStream(Files.newOutputStream(path), BUFFER_SIZE);
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
     }
 }
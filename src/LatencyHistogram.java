@@ -0,0 +1,83 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Counts the latencies in buckets, as HdrHistogram does: every power of two is split into 32 linear buckets,
+   so a percentile is off by at most 3%, whatever the scale. Up to 2^40 ns (18 minutes) the values
+   are told apart, the longer ones are counted in the last bucket.
+   Recording takes two atomic additions and never allocates, so the histogram may be updated by any number
+   of threads on every request. The reads don't stop the writers and may miss the values being recorded
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_BITS = 40;
+    private static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    static int bucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) Math.max(0, value);
+        }
+        final int bits = Long.SIZE - Long.numberOfLeadingZeros(value);
+        if (bits > MAX_BITS) {
+            return BUCKETS - 1;
+        }
+        final int shift = bits - SUB_BITS - 1;
+        return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) - SUB_COUNT);
+    }
+
+    /* The least value of the bucket */
+    static long lowest(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_COUNT - 1;
+        return (long) (bucket % SUB_COUNT + SUB_COUNT) << shift;
+    }
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+        total.add(nanos);
+        /* the maximum is rarely exceeded, so it is mostly only read */
+        long last = max.get();
+        while (nanos > last && !max.compareAndSet(last, nanos)) {
+            last = max.get();
+        }
+    }
+
+    /* Sums up the buckets, so it is for the reports rather than for every request */
+    public long getCount() {
+        long recorded = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            recorded += counts.get(i);
+        }
+        return recorded;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        final long recorded = getCount();
+        return (recorded == 0 ? 0 : (double) total.sum() / recorded);
+    }
+
+    /* The greatest value of the bucket where the percentile falls, but no more than the maximum */
+    public long percentile(double percent) {
+        final long recorded = getCount();
+        final long rank = Math.max(1, (long) Math.ceil(percent / 100 * recorded));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(i + 1 < BUCKETS ? lowest(i + 1) - 1 : Long.MAX_VALUE, getMax());
+            }
+        }
+        return 0;
+    }
+}
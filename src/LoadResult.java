@@ -0,0 +1,25 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class LoadResult {
+    private final List<Task> tasks;
+    private final int skipped;
+
+    public LoadResult(List<Task> tasks, int skipped) {
+        this.tasks = tasks;
+        this.skipped = skipped;
+    }
+
+    public static LoadResult empty() {
+        return new LoadResult(new ArrayList<>(), 0);
+    }
+
+    public List<Task> getTasks() {
+        return tasks;
+    }
+
+    /* Number of records which were present in the file, but were not read because the limit was reached */
+    public int getSkipped() {
+        return skipped;
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/* A binary tasks file, mapped into memory instead of being read.
+   Tasks are decoded from their records only when a command needs them, while done flags and deadlines
+   are read straight from the columns of the index. The mapping stays valid after the file is replaced
+   by a rename (as the snapshots are), but the file must not be rewritten in place while it is loaded.
+ */
+public class MappedTaskFile {
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int recordsPosition;
+    private final int offsetsPosition;
+    private final int deadlinesPosition;
+    private final int donePosition;
+
+    /* A record of the file under the id it was given on load */
+    public static class Row implements TaskEntry {
+        private final MappedTaskFile file;
+        private final int row;
+        private final int id;
+
+        Row(MappedTaskFile file, int row, int id) {
+            this.file = file;
+            this.row = row;
+            this.id = id;
+        }
+
+        @Override
+        public int getId() {
+            return id;
+        }
+
+        @Override
+        public boolean isDone() {
+            return file.isDone(row);
+        }
+
+        @Override
+        public long getDeadlineMillis() {
+            return file.deadline(row);
+        }
+
+        @Override
+        public Task toTask() {
+            Task task = file.decode(row);
+            task.setId(id);
+            return task;
+        }
+    }
+
+    private MappedTaskFile(MappedByteBuffer buffer, int count, int recordsPosition, int indexPosition) {
+        this.buffer = buffer;
+        this.count = count;
+        this.recordsPosition = recordsPosition;
+        this.offsetsPosition = indexPosition;
+        this.deadlinesPosition = offsetsPosition + count * Integer.BYTES;
+        this.donePosition = deadlinesPosition + count * Long.BYTES;
+    }
+
+    /* Returns null if the file has no index, so it can only be read as a whole.
+       The same goes for a file whose index doesn't fit between the records and the end of the file
+       (a torn write, for example): the index is trusted by every later read, so it is checked only here
+     */
+    public static MappedTaskFile open(final String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] magic = new byte[BinaryUtills.MAGIC.length];
+            long recordsPosition;
+            int count;
+            long indexPosition;
+            try {
+                buffer.get(magic);
+                if (!Arrays.equals(magic, BinaryUtills.MAGIC)) {
+                    throw new IOException("not a tasks file");
+                }
+                int headerSize = readVarInt(buffer);
+                if (headerSize < BinaryUtills.HEADER_SIZE) {
+                    return null;
+                }
+                recordsPosition = buffer.position() + (long) headerSize;
+                buffer.getInt();
+                count = buffer.getInt();
+                indexPosition = buffer.getLong();
+            } catch (BufferUnderflowException e) {
+                throw new IOException("unexpected end of file");
+            }
+            final long indexSize = (long) count * (Integer.BYTES + Long.BYTES) + (count + 7L) / 8;
+            if (count < 0 || indexPosition < recordsPosition || indexPosition + indexSize > channel.size()) {
+                return null;
+            }
+            return new MappedTaskFile(buffer, count, (int) recordsPosition, (int) indexPosition);
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /* The records are written one after another, so their offsets must grow and stay before the index.
+       Reads the offsets column only: the records themselves are still decoded on demand
+     */
+    public void checkRecords() throws IOException {
+        int last = recordsPosition - 1;
+        for (int row = 0; row < count; row++) {
+            int offset = buffer.getInt(offsetsPosition + row * Integer.BYTES);
+            if (offset <= last || offset >= offsetsPosition) {
+                throw new IOException("broken index at task " + (row + 1));
+            }
+            last = offset;
+        }
+    }
+
+    public boolean isDone(int row) {
+        return (buffer.get(donePosition + (row >>> 3)) & (1 << (row & 7))) != 0;
+    }
+
+    public long deadline(int row) {
+        return buffer.getLong(deadlinesPosition + row * Long.BYTES);
+    }
+
+    /* The id the task was stored with */
+    public int id(int row) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(buffer.getInt(offsetsPosition + row * Integer.BYTES));
+        return readVarInt(record);
+    }
+
+    public Row row(int row, int id) {
+        return new Row(this, row, id);
+    }
+
+    public Task decode(int row) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(buffer.getInt(offsetsPosition + row * Integer.BYTES));
+        Task task = new Task(readVarInt(record));
+        int flags = record.get() & 0xff;
+        task.setDone((flags & BinaryUtills.DONE) != 0);
+        if ((flags & BinaryUtills.HAS_DEADLINE) != 0) {
+            task.setDeadlineMillis(readVarLong(record));
+        }
+        if ((flags & BinaryUtills.HAS_TITLE) != 0) {
+            task.setTitle(readString(record));
+        }
+        if ((flags & BinaryUtills.HAS_DETAILS) != 0) {
+            task.setDetails(readString(record));
+        }
+        return task;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = readVarInt(buffer);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = buffer.get() & 0xff;
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = buffer.get() & 0xff;
+            zigzag |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/* The counters of a TaskManager: the latencies of the requests by command, the loads, the snapshots and
+   the journal writes, and the state of the list. The counters are updated without locks, and the state is read
+   from the published list only when the metrics are asked for, so they may be left on under load.
+   They are printed by the stats command and shown by JMX once registered
+ */
+public class Metrics implements MetricsMXBean {
+    /* An operation which moves bytes to or from the disk */
+    static class Timer {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+
+        void record(long nanos, long bytes) {
+            this.count.increment();
+            this.nanos.add(nanos);
+            this.bytes.add(bytes);
+        }
+
+        double millis() {
+            return nanos.sum() / 1e6;
+        }
+    }
+
+    /* The latencies of the requests of one command, in microseconds */
+    public static class RequestLatency {
+        private final String command;
+        private final long count;
+        private final double mean;
+        private final double p50;
+        private final double p99;
+        private final double p999;
+        private final double max;
+
+        RequestLatency(String command, LatencyHistogram histogram) {
+            this.command = command;
+            this.count = histogram.getCount();
+            this.mean = histogram.getMean() / 1e3;
+            this.p50 = histogram.percentile(50) / 1e3;
+            this.p99 = histogram.percentile(99) / 1e3;
+            this.p999 = histogram.percentile(99.9) / 1e3;
+            this.max = histogram.getMax() / 1e3;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getP999() {
+            return p999;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+
+    final Timer loads = new Timer();
+    final Timer snapshots = new Timer();
+    final Timer journal = new Timer();
+    private final RequestMetrics requests;
+    private final Supplier<TaskStore> tasks;
+    private final IntSupplier modifications;
+    private final IntSupplier backlog;
+    private ObjectName name;
+
+    /* The requests are told apart by the index of their command */
+    public Metrics(String[] commands, Supplier<TaskStore> tasks, IntSupplier modifications, IntSupplier backlog) {
+        this.requests = new RequestMetrics(commands);
+        this.tasks = tasks;
+        this.modifications = modifications;
+        this.backlog = backlog;
+    }
+
+    public void request(int command, long nanos) {
+        requests.record(command, nanos);
+    }
+
+    public synchronized void register(final String list) throws JMException {
+        if (name == null) {
+            ObjectName name = new ObjectName("TaskManager:type=Metrics,name=" + ObjectName.quote(list));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            this.name = name;
+        }
+    }
+
+    public synchronized void unregister() {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                System.out.println("Couldn't unregister the metrics: " + e.getMessage());
+            }
+            name = null;
+        }
+    }
+
+    @Override
+    public int getTasks() {
+        return tasks.get().size();
+    }
+
+    @Override
+    public int getDoneTasks() {
+        return tasks.get().doneCount();
+    }
+
+    @Override
+    public int getUndoneTasks() {
+        TaskStore list = tasks.get();
+        return list.size() - list.doneCount();
+    }
+
+    /* Walks only the expired tasks */
+    @Override
+    public int getExpiredTasks() {
+        final int[] expired = {0};
+        tasks.get().forEachMatching(false, false, true, entry -> expired[0]++);
+        return expired[0];
+    }
+
+    @Override
+    public int getPendingModifications() {
+        return modifications.getAsInt();
+    }
+
+    @Override
+    public int getPersisterBacklog() {
+        return backlog.getAsInt();
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.count.sum();
+    }
+
+    @Override
+    public double getLoadMillis() {
+        return loads.millis();
+    }
+
+    @Override
+    public long getLoadBytes() {
+        return loads.bytes.sum();
+    }
+
+    @Override
+    public long getSnapshots() {
+        return snapshots.count.sum();
+    }
+
+    @Override
+    public double getSnapshotMillis() {
+        return snapshots.millis();
+    }
+
+    @Override
+    public long getSnapshotBytes() {
+        return snapshots.bytes.sum();
+    }
+
+    @Override
+    public long getJournalFlushes() {
+        return journal.count.sum();
+    }
+
+    @Override
+    public double getJournalFlushMillis() {
+        return journal.millis();
+    }
+
+    @Override
+    public long getJournalBytes() {
+        return journal.bytes.sum();
+    }
+
+    /* The commands which were requested at least once */
+    @Override
+    public List<RequestLatency> getRequests() {
+        return requests.getRequests();
+    }
+
+    public void print(PrintStream out) {
+        TaskStore list = tasks.get();
+        out.printf("Tasks: %d (done %d, undone %d, expired %d)%n", list.size(), list.doneCount(),
+                list.size() - list.doneCount(), getExpiredTasks());
+        out.printf("Pending modifications: %d, persister backlog: %d%n", getPendingModifications(), getPersisterBacklog());
+        print(out, "Loads", loads);
+        print(out, "Snapshots", snapshots);
+        print(out, "Journal flushes", journal);
+        requests.print(out);
+    }
+
+    private static void print(PrintStream out, final String name, Timer timer) {
+        out.printf("%s: %d in %.1f ms, %d bytes%n", name, timer.count.sum(), timer.millis(), timer.bytes.sum());
+    }
+}
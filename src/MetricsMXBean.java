@@ -0,0 +1,41 @@
+import java.util.List;
+
+/* The metrics of a TaskManager as JMX shows them, under TaskManager:type=Metrics,name="<file>" where the file
+   is the one of the list, so every shard has its own bean.
+   The times are in milliseconds, the latencies of the requests in microseconds
+ */
+public interface MetricsMXBean {
+    int getTasks();
+
+    int getDoneTasks();
+
+    int getUndoneTasks();
+
+    int getExpiredTasks();
+
+    /* The changes since the last snapshot of the list */
+    int getPendingModifications();
+
+    /* The changes and the snapshots queued for the persister */
+    int getPersisterBacklog();
+
+    long getLoads();
+
+    double getLoadMillis();
+
+    long getLoadBytes();
+
+    long getSnapshots();
+
+    double getSnapshotMillis();
+
+    long getSnapshotBytes();
+
+    long getJournalFlushes();
+
+    double getJournalFlushMillis();
+
+    long getJournalBytes();
+
+    List<Metrics.RequestLatency> getRequests();
+}
@@ -0,0 +1,127 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class MetricsTester {
+    private static Random rnd = new Random();
+
+    @Test
+    public void histogramTest() {
+        int testNumber = 50;
+        while (testNumber-- > 0) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            final int size = 1 + rnd.nextInt(10000);
+            long[] values = new long[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = (long) Math.pow(10, rnd.nextDouble() * 10);
+                histogram.record(values[i]);
+            }
+            Arrays.sort(values);
+            Assert.assertEquals(size, histogram.getCount());
+            Assert.assertEquals(values[size - 1], histogram.getMax());
+            for (double percent : new double[]{0, 50, 90, 99, 99.9, 100}) {
+                final long expected = values[(int) Math.max(0, Math.ceil(percent / 100 * size) - 1)];
+                final long actual = histogram.percentile(percent);
+                Assert.assertTrue(percent + ": " + expected + " " + actual, actual >= expected && actual <= expected * 1.04 + 1);
+            }
+        }
+    }
+
+    @Test
+    public void statsTest() throws IOException, JMException {
+        List<Task> initial = new ArrayList<>();
+        for (int id = 1; id <= 100; id++) {
+            Task task = new Task(id);
+            task.setTitle("task " + id);
+            task.setDone(id % 4 == 0);
+            task.setDeadlineMillis(id % 2 == 0 ? System.currentTimeMillis() - 1000 : TaskEntry.NO_DEADLINE);
+            initial.add(task);
+        }
+        JsonUtills.store(initial, TaskManager.TODO_LIST_FILE);
+        Files.deleteIfExists(Paths.get(TaskManager.TODO_LIST_FILE + TaskManager.JOURNAL_SUFFIX));
+        TaskManager manager = new TaskManager();
+        PrintStream nowhere = new PrintStream(new ByteArrayOutputStream());
+        final int adds = 1 + rnd.nextInt(20);
+        for (int i = 0; i < adds; i++) {
+            manager.processRequest("add -t added", nowhere);
+        }
+        manager.processRequest("done 1 3", nowhere);
+        manager.processRequest("list", nowhere);
+        manager.storeChanges(true);
+
+        Metrics metrics = manager.getMetrics();
+        Assert.assertEquals(100 + adds, metrics.getTasks());
+        Assert.assertEquals(27, metrics.getDoneTasks());
+        Assert.assertEquals(73 + adds, metrics.getUndoneTasks());
+        Assert.assertEquals(25, metrics.getExpiredTasks());
+        Assert.assertEquals(1, metrics.getLoads());
+        Assert.assertTrue(metrics.getLoadBytes() > 0);
+        Assert.assertTrue(metrics.getSnapshots() >= 1);
+        for (Metrics.RequestLatency latency : metrics.getRequests()) {
+            Assert.assertEquals(latency.getCommand(), latency.getCommand().equals("add") ? adds : 1, latency.getCount());
+        }
+
+        manager.registerMetrics();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("TaskManager:type=Metrics,name=" + ObjectName.quote(TaskManager.TODO_LIST_FILE));
+        Assert.assertEquals(100 + adds, server.getAttribute(name, "Tasks"));
+        CompositeData[] requests = (CompositeData[]) server.getAttribute(name, "Requests");
+        Assert.assertEquals(3, requests.length);
+
+        ByteArrayOutputStream stats = new ByteArrayOutputStream();
+        manager.processRequest("stats", new PrintStream(stats));
+        Assert.assertTrue(stats.toString(), stats.toString().startsWith("Tasks: " + (100 + adds) + " (done 27, undone " + (73 + adds) + ", expired 25)"));
+        manager.close();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+
+    /* The lists and the searches of a split list are timed as a whole, next to the metrics of the shards */
+    @Test
+    public void shardedStatsTest() throws IOException, JMException {
+        final int shards = 2;
+        for (int k = 0; k < shards; k++) {
+            Files.deleteIfExists(Paths.get(ShardedTaskManager.filename(k)));
+            Files.deleteIfExists(Paths.get(ShardedTaskManager.filename(k) + TaskManager.JOURNAL_SUFFIX));
+        }
+        ShardedTaskManager manager = new ShardedTaskManager(Config.defaults().withShards(shards));
+        PrintStream nowhere = new PrintStream(new ByteArrayOutputStream());
+        manager.processRequest("add -t added", nowhere);
+        manager.processRequest("list", nowhere);
+        manager.processRequest("search added", nowhere);
+        manager.registerMetrics();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("TaskManager:type=Requests,name=" + ObjectName.quote(TaskManager.TODO_LIST_FILE));
+        List<String> commands = new ArrayList<>();
+        for (CompositeData latency : (CompositeData[]) server.getAttribute(name, "Requests")) {
+            commands.add((String) latency.get("command"));
+            Assert.assertEquals(1L, latency.get("count"));
+        }
+        Assert.assertEquals(Arrays.asList("add", "list", "search"), commands);
+
+        ByteArrayOutputStream stats = new ByteArrayOutputStream();
+        manager.processRequest("stats", new PrintStream(stats));
+        Assert.assertTrue(stats.toString(), stats.toString().startsWith("Whole list:"));
+        Assert.assertTrue(stats.toString(), stats.toString().contains(System.lineSeparator() + "search "));
+        manager.close();
+        Assert.assertFalse(server.isRegistered(name));
+        for (int k = 0; k < shards; k++) {
+            Files.deleteIfExists(Paths.get(ShardedTaskManager.filename(k)));
+            Files.deleteIfExists(Paths.get(ShardedTaskManager.filename(k) + TaskManager.JOURNAL_SUFFIX));
+        }
+    }
+}
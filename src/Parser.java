@@ -1,43 +1,68 @@
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-
+/* Finds the options of a request and their values. The value of an option is the text between the option
+   and the next one, as it is written.
+   The parser keeps the values of the last request only, so one parser is reused instead of being created
+   for every request; a thread should have its own one
+ */
 public class Parser {
-    private Set<String> options;
+    private final String[] options;
+    private final String[] values;
 
-    public Parser(Set<String> options) {
+    public Parser(String... options) {
         this.options = options;
+        this.values = new String[options.length];
     }
 
-    public void setOptions(Set<String> options) {
-        this.options = options;
+    /* Parses the words which follow the current one */
+    public void parse(RequestTokenizer words) throws ParserException {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+        final CharSequence request = words.request();
+        int current = -1;
+        int valueStart = 0;
+        int valueEnd = 0;
+        while (words.next()) {
+            final int option = indexOf(words);
+            if (option < 0) {
+                valueEnd = words.end();
+                continue;
+            }
+            if (values[option] != null || option == current) {
+                throw new ParserException("Ambiguous " + options[option] + " option");
+            }
+            if (current >= 0) {
+                /* the spaces before the next option belong to the value, except the one which separates them */
+                values[current] = value(request, valueStart, words.start() - 1);
+            }
+            current = option;
+            valueStart = words.end() + 1;
+            valueEnd = valueStart;
+        }
+        if (current >= 0) {
+            values[current] = value(request, valueStart, valueEnd);
+        }
     }
 
-    public Map<String, String> parse(final String str) throws ParserException {
-        Map<String, String> res = new HashMap<>();
+    private static String value(CharSequence request, int start, int end) {
+        return (start < end ? request.subSequence(start, end).toString() : "");
+    }
 
-        String[] p = str.split(" ");
-        for (int i = 0; i < p.length;) {
-            String opt = p[i];
-            if (options.contains(opt)) {
-                if (res.containsKey(opt)) {
-                    throw new ParserException("Ambiguous " + opt + " option");
-                }
-                i++;
-                StringBuilder sb = new StringBuilder();
-                while (i < p.length && !options.contains(p[i])) {
-                    sb.append(p[i]).append(" ");
-                    i++;
-                }
-                if (sb.length() > 0) {
-                    sb.setLength(sb.length() - 1);
-                }
-                res.put(opt, sb.toString());
-            } else {
-                i++;
+    private int indexOf(RequestTokenizer words) {
+        for (int i = 0; i < options.length; i++) {
+            if (words.is(options[i])) {
+                return i;
             }
         }
+        return -1;
+    }
 
-        return res;
+    /* Returns the value of the option or null if the request does not have it */
+    public String get(String option) {
+        for (int i = 0; i < options.length; i++) {
+            if (options[i].equals(option)) {
+                return values[i];
+            }
+        }
+        return null;
     }
 }
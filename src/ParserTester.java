@@ -0,0 +1,114 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+public class ParserTester {
+    private static final String[] WORDS = {"-t", "-dt", "-dl", "", " ", "word", "12", "-5", "+7", "2147483647",
+            "2147483648", "-2147483648", "-", "1a"};
+    private static final String[] OPTIONS = {"-t", "-dt", "-dl"};
+    private static Random rnd = new Random();
+
+    private String randomRequest() {
+        StringBuilder request = new StringBuilder();
+        final int words = rnd.nextInt(10);
+        for (int i = 0; i < words; i++) {
+            request.append(WORDS[rnd.nextInt(WORDS.length)]).append(rnd.nextInt(4) == 0 ? "  " : " ");
+        }
+        if (rnd.nextBoolean() && request.length() > 0) {
+            request.setLength(request.length() - 1);
+        }
+        return request.toString();
+    }
+
+    /* The way the requests were parsed with String.split */
+    private Map<String, String> splitOptions(String request) throws ParserException {
+        List<String> options = Arrays.asList(OPTIONS);
+        Map<String, String> res = new HashMap<>();
+        String[] p = request.split(" ");
+        for (int i = 0; i < p.length; ) {
+            String opt = p[i];
+            if (options.contains(opt)) {
+                if (res.containsKey(opt)) {
+                    throw new ParserException("Ambiguous " + opt + " option");
+                }
+                i++;
+                StringBuilder sb = new StringBuilder();
+                while (i < p.length && !options.contains(p[i])) {
+                    sb.append(p[i]).append(" ");
+                    i++;
+                }
+                if (sb.length() > 0) {
+                    sb.setLength(sb.length() - 1);
+                }
+                res.put(opt, sb.toString());
+            } else {
+                i++;
+            }
+        }
+        return res;
+    }
+
+    @Test
+    public void optionsTest() {
+        RequestTokenizer words = new RequestTokenizer();
+        Parser parser = new Parser(OPTIONS);
+        int testNumber = 10000;
+        while (testNumber-- > 0) {
+            final String request = randomRequest();
+            Map<String, String> expected;
+            try {
+                expected = splitOptions(request);
+            } catch (ParserException e) {
+                expected = null;
+            }
+            try {
+                parser.parse(words.reset(request));
+                Assert.assertNotNull(request, expected);
+                for (String option : OPTIONS) {
+                    Assert.assertEquals(request, expected.get(option), parser.get(option));
+                }
+            } catch (ParserException e) {
+                Assert.assertNull(request, expected);
+            }
+        }
+    }
+
+    @Test
+    public void wordsTest() {
+        RequestTokenizer words = new RequestTokenizer();
+        int testNumber = 10000;
+        while (testNumber-- > 0) {
+            final String request = randomRequest();
+            List<String> expected = Arrays.stream(request.split(" "))
+                    .filter(word -> !word.isEmpty())
+                    .collect(Collectors.toList());
+            Assert.assertEquals(request, expected, words.reset(request).words());
+
+            List<Integer> numbers = new ArrayList<>();
+            try {
+                for (String word : expected) {
+                    numbers.add(Integer.valueOf(word));
+                }
+            } catch (NumberFormatException e) {
+                numbers = null;
+            }
+            try {
+                final int count = words.reset(request).readInts();
+                Assert.assertNotNull(request, numbers);
+                Assert.assertEquals(request, numbers.size(), count);
+                for (int i = 0; i < count; i++) {
+                    Assert.assertEquals(request, (int) numbers.get(i), words.ints()[i]);
+                }
+            } catch (NumberFormatException e) {
+                Assert.assertNull(request, numbers);
+            }
+        }
+    }
+}
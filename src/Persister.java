@@ -0,0 +1,381 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/* Writes the changes to the journal and the snapshots of the tasks list in the background.
+   The changes are queued and coalesced by task id, then written and flushed as soon as FLUSH_CHANGES of them
+   are queued or every FLUSH_INTERVAL_MS, whichever comes first. The worker is not woken up for every change,
+   so a single change costs the caller nothing but putting it into the queue.
+   The queue is bounded, so if the disk can't keep up, the caller waits instead of piling up the changes.
+   A snapshot in the slots format is not followed by a journal: the changed tasks are rewritten in it in place,
+   so the pending changes are the dirty tasks, and a flush costs as much as there are of them.
+ */
+public class Persister {
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int FLUSH_CHANGES = 20;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    static final String BROKEN_SUFFIX = ".broken";
+
+    private enum Op {ADD, REMOVE, DONE, REPLACE}
+
+    private static class Change {
+        final Op op;
+        final int id;
+        final Task task;
+
+        Change(Op op, int id, Task task) {
+            this.op = op;
+            this.id = id;
+            this.task = task;
+        }
+    }
+
+    private static class Snapshot {
+        final TaskStore tasks;
+        final TaskFormat format;
+
+        Snapshot(TaskStore tasks, TaskFormat format) {
+            this.tasks = tasks;
+            this.format = format;
+        }
+    }
+
+    private static class Drain {
+        final CountDownLatch done = new CountDownLatch(1);
+    }
+
+    private final String filename;
+    private final Journal journal;
+    /* the snapshot itself, when it is changed in place */
+    private SlotFile slots;
+    /* a snapshot which couldn't be read and couldn't be moved aside either, it is never written over */
+    private boolean unreadable = false;
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Map<Integer, Change> pending = new LinkedHashMap<>();
+    private final List<Object> batch = new ArrayList<>();
+    private volatile boolean stopped;
+    private Thread worker;
+    private Thread shutdownHook;
+    private final Metrics.Timer snapshots;
+    private final Metrics.Timer flushes;
+
+    public Persister(final String filename) {
+        this(filename, new Metrics.Timer(), new Metrics.Timer());
+    }
+
+    /* The writes of the snapshots and of the journal are timed with the timers */
+    public Persister(final String filename, Metrics.Timer snapshots, Metrics.Timer flushes) {
+        this.filename = filename;
+        this.journal = new Journal(filename + TaskManager.JOURNAL_SUFFIX);
+        this.snapshots = snapshots;
+        this.flushes = flushes;
+    }
+
+    /* Replays the journal of the snapshot, which was already loaded. Should be called before any other changes.
+       A slots snapshot already contains all the changes, so its journal is outdated.
+       A slots snapshot which couldn't be read is not loaded either, so the next snapshot would lose its tasks:
+       it is moved aside instead
+     */
+    public int restore(Journal.Listener listener) {
+        if (TaskFormat.detect(filename) == TaskFormat.SLOTS) {
+            try {
+                slots = SlotFile.open(filename);
+                journal.delete();
+                return 0;
+            } catch (IOException e) {
+                System.out.println("Couldn't open " + filename + " for changes: " + e.getMessage());
+                keepUnreadable();
+            }
+        }
+        final long stamp = snapshotStamp();
+        int replayed = journal.replay(stamp, listener);
+        if (replayed == 0) {
+            journal.start(stamp);
+        }
+        return replayed;
+    }
+
+    private void keepUnreadable() {
+        Path kept = Paths.get(filename + BROKEN_SUFFIX);
+        try {
+            Files.move(Paths.get(filename), kept, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Warning: " + filename + " is kept as " + kept + ", the list is saved anew");
+        } catch (IOException e) {
+            unreadable = true;
+            System.out.println("Warning: " + filename + " is not overwritten, the changes are kept in the journal only");
+        }
+    }
+
+    private long snapshotStamp() {
+        try {
+            Path snapshot = Paths.get(filename);
+            return Files.exists(snapshot) ? Files.size(snapshot) * 31 + Files.getLastModifiedTime(snapshot).toMillis() : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    public void added(Task task) {
+        submit(new Change(Op.ADD, task.getId(), task));
+    }
+
+    public void removed(int id) {
+        submit(new Change(Op.REMOVE, id, null));
+    }
+
+    /* Takes the task which replaced another one with the same id */
+    public void replaced(Task task) {
+        submit(new Change(Op.REPLACE, task.getId(), task));
+    }
+
+    /* Takes the task which replaced the undone one */
+    public void done(Task task) {
+        submit(new Change(Op.DONE, task.getId(), task));
+    }
+
+    /* Queues the rewrite of the whole list; the store must not be changed afterwards, so pass a snapshot */
+    public void snapshot(TaskStore tasks) {
+        snapshot(tasks, TaskFormat.of(filename));
+    }
+
+    /* The format may differ from the extension of the file, as the snapshot is recognized by its contents */
+    public void snapshot(TaskStore tasks, TaskFormat format) {
+        submit(new Snapshot(tasks, format));
+    }
+
+    /* Whether the changes are written into the snapshot rather than to the journal */
+    public boolean isInPlace() {
+        return slots != null;
+    }
+
+    /* The changes and the snapshots which are not taken by the worker yet */
+    public int backlog() {
+        return queue.size();
+    }
+
+    /* Waits until everything queued before is written to disk */
+    public void drain() {
+        if (worker == null) {
+            return;
+        }
+        Drain drain = new Drain();
+        submit(drain);
+        try {
+            drain.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* Writes everything that was queued and stops the background thread */
+    public synchronized void close() {
+        if (worker == null) {
+            return;
+        }
+        drain();
+        stopped = true;
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException ignored) {
+            /* the JVM is already shutting down, so the hook is running now */
+        }
+        journal.close();
+        if (slots != null) {
+            slots.close();
+        }
+        worker = null;
+    }
+
+    private synchronized void start() {
+        if (worker != null) {
+            return;
+        }
+        stopped = false;
+        worker = new Thread(this::run, "persister " + filename);
+        worker.setDaemon(true);
+        worker.start();
+        shutdownHook = new Thread(this::drain, "persister shutdown " + filename);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    private void submit(Object item) {
+        start();
+        try {
+            queue.put(item);
+            if (!(item instanceof Change) || queue.size() >= FLUSH_CHANGES) {
+                LockSupport.unpark(worker);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Couldn't save the change: interrupted");
+        }
+    }
+
+    private void run() {
+        while (!stopped) {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MS));
+            processQueued();
+        }
+        processQueued();
+    }
+
+    private void processQueued() {
+        queue.drainTo(batch);
+        for (Object item : batch) {
+            process(item);
+        }
+        batch.clear();
+        flush();
+    }
+
+    private void process(Object item) {
+        if (item instanceof Change) {
+            coalesce((Change) item);
+        } else if (item instanceof Snapshot) {
+            /* the new snapshot already contains the pending changes, but the old one doesn't */
+            if (compact(((Snapshot) item).tasks, ((Snapshot) item).format)) {
+                pending.clear();
+            } else {
+                flush();
+            }
+        } else if (item instanceof Drain) {
+            flush();
+            ((Drain) item).done.countDown();
+        }
+    }
+
+    /* Keeps only the net effect of the pending changes of every task */
+    private void coalesce(Change change) {
+        Change previous = pending.remove(change.id);
+        Change merged = change;
+        if (previous != null) {
+            switch (change.op) {
+                case REMOVE:
+                    merged = (previous.op == Op.ADD ? null : change);
+                    break;
+                case ADD:
+                    merged = new Change(Op.REPLACE, change.id, change.task);
+                    break;
+                case REPLACE:
+                    /* a task which is not written yet stays new */
+                    merged = (previous.op == Op.ADD ? new Change(Op.ADD, change.id, change.task) : change);
+                    break;
+                case DONE:
+                    merged = (previous.op == Op.DONE ? change : new Change(previous.op, change.id, change.task));
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (merged != null) {
+            pending.put(change.id, merged);
+        }
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        final long start = System.nanoTime();
+        final long written = written();
+        for (Iterator<Change> it = pending.values().iterator(); it.hasNext(); it.remove()) {
+            Change change = it.next();
+            if (slots != null) {
+                apply(slots, change);
+            } else {
+                apply(journal, change);
+            }
+        }
+        journal.flush();
+        flushes.record(System.nanoTime() - start, written() - written);
+    }
+
+    private static void apply(Journal journal, Change change) {
+        switch (change.op) {
+            case REPLACE:
+                journal.removed(change.id);
+                journal.added(change.task);
+                break;
+            case ADD:
+                journal.added(change.task);
+                break;
+            case REMOVE:
+                journal.removed(change.id);
+                break;
+            case DONE:
+                journal.done(change.id);
+                break;
+        }
+    }
+
+    /* The slots of a task are rewritten in place, so a replaced task needs no removal */
+    private static void apply(SlotFile slots, Change change) {
+        switch (change.op) {
+            case REPLACE:
+            case ADD:
+                slots.added(change.task);
+                break;
+            case REMOVE:
+                slots.removed(change.id);
+                break;
+            case DONE:
+                slots.done(change.id);
+                break;
+        }
+    }
+
+    private long written() {
+        return journal.written() + (slots != null ? slots.written() : 0);
+    }
+
+    /* Rewrites the snapshot and starts an empty journal for it, or opens it for the changes in place.
+       The snapshot is replaced atomically: until then the old snapshot together with the old journal stay valid
+     */
+    private boolean compact(TaskStore tasks, TaskFormat format) {
+        if (unreadable) {
+            return false;
+        }
+        Path snapshot = Paths.get(filename);
+        Path tmp = Paths.get(filename + ".tmp");
+        final long start = System.nanoTime();
+        if (!format.store(tasks, tmp.toString())) {
+            return false;
+        }
+        try {
+            snapshots.record(System.nanoTime() - start, Files.size(tmp));
+            Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (slots != null) {
+                slots.close();
+                slots = null;
+            }
+            if (format == TaskFormat.SLOTS) {
+                slots = SlotFile.open(filename);
+                journal.delete();
+            } else {
+                journal.start(snapshotStamp());
+            }
+            return true;
+        } catch (IOException e) {
+            System.out.println("Couldn't save changes to disk: " + e.getMessage());
+        }
+        return false;
+    }
+}
@@ -0,0 +1,69 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/* The latencies of the requests by command. Every TaskManager keeps them in its Metrics; ShardedTaskManager
+   keeps its own ones for the requests as a whole, as a list or a search is gathered from the shards
+   and is not a request of any of them
+ */
+public class RequestMetrics implements RequestMetricsMXBean {
+    private final String[] commands;
+    private final LatencyHistogram[] requests;
+    private ObjectName name;
+
+    /* The requests are told apart by the index of their command */
+    public RequestMetrics(String[] commands) {
+        this.commands = commands.clone();
+        this.requests = new LatencyHistogram[commands.length];
+        for (int i = 0; i < commands.length; i++) {
+            requests[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(int command, long nanos) {
+        requests[command].record(nanos);
+    }
+
+    /* The commands which were requested at least once */
+    @Override
+    public List<Metrics.RequestLatency> getRequests() {
+        List<Metrics.RequestLatency> latencies = new ArrayList<>();
+        for (int i = 0; i < commands.length; i++) {
+            if (requests[i].getCount() > 0) {
+                latencies.add(new Metrics.RequestLatency(commands[i], requests[i]));
+            }
+        }
+        return latencies;
+    }
+
+    public void print(PrintStream out) {
+        out.printf("%-12s %10s %10s %10s %10s %10s %10s%n", "Request", "count", "mean us", "p50 us", "p99 us", "p99.9 us", "max us");
+        for (Metrics.RequestLatency latency : getRequests()) {
+            out.printf("%-12s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n", latency.getCommand(), latency.getCount(),
+                    latency.getMean(), latency.getP50(), latency.getP99(), latency.getP999(), latency.getMax());
+        }
+    }
+
+    /* Only ShardedTaskManager shows them on their own, the ones of a TaskManager are a part of its Metrics */
+    public synchronized void register(final String list) throws JMException {
+        if (name == null) {
+            ObjectName name = new ObjectName("TaskManager:type=Requests,name=" + ObjectName.quote(list));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            this.name = name;
+        }
+    }
+
+    public synchronized void unregister() {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                System.out.println("Couldn't unregister the metrics: " + e.getMessage());
+            }
+            name = null;
+        }
+    }
+}
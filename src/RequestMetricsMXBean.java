@@ -0,0 +1,8 @@
+import java.util.List;
+
+/* The latencies of the requests to the whole list when it is split into shards, as JMX shows them under
+   TaskManager:type=Requests,name="<file>" where the file is the one of the whole list. In microseconds
+ */
+public interface RequestMetricsMXBean {
+    List<Metrics.RequestLatency> getRequests();
+}
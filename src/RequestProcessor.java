@@ -0,0 +1,77 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.function.Consumer;
+
+/* Executes the requests of the console, the batch files and the server: a TaskManager for the whole list
+   or a ShardedTaskManager
+ */
+public interface RequestProcessor {
+    /* The messages and the lists are printed to out, so the caller decides where the response goes.
+       Returns false if the request asks to finish
+     */
+    boolean processRequest(String request, PrintStream out);
+
+    default boolean processRequest(String request) {
+        return processRequest(request, System.out);
+    }
+
+    /* The request of one of the clients of the server. A transaction belongs to the client which began it:
+       the others cannot change the list until it ends. The console and the batches are the client null
+     */
+    default boolean processRequest(String request, PrintStream out, Object client) {
+        return processRequest(request, out);
+    }
+
+    /* The client has gone, its transaction is rolled back */
+    default void disconnected(Object client) {
+    }
+
+    /* The lists are written through out, so they are encoded as the messages are: in the charset of
+       the console, or in UTF-8 for the server
+     */
+    static Writer writer(PrintStream out) {
+        return new BufferedWriter(new Writer() {
+            @Override
+            public void write(char[] chars, int offset, int length) {
+                out.append(CharBuffer.wrap(chars, offset, length));
+            }
+
+            @Override
+            public void flush() {
+                out.flush();
+            }
+
+            @Override
+            public void close() {
+                out.flush();
+            }
+        });
+    }
+
+    void batch(BufferedReader reader, PrintStream out) throws IOException;
+
+    default void batch(String filename, PrintStream out) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            batch(reader, out);
+        } catch (IOException e) {
+            out.println("Couldn't read the batch: " + e.getMessage());
+        }
+    }
+
+    /* The forced store waits until the list is written */
+    void storeChanges(boolean forced);
+
+    /* The listener is called on a scheduler thread when an undone task expires */
+    void addExpiryListener(Consumer<Task> listener);
+
+    /* Shows the metrics by JMX, until the processor is closed */
+    void registerMetrics();
+
+    /* Writes the queued changes and stops the background threads */
+    void close();
+}
@@ -0,0 +1,117 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* Splits a request into the words separated by spaces without copying it.
+   next() moves to the next word, which is then compared or converted in place, so a request is parsed
+   without allocations unless the text of a word is needed. A tokenizer is meant to be reused for every
+   request of a thread
+ */
+public class RequestTokenizer {
+    private CharSequence request = "";
+    private int start = 0;
+    private int end = 0;
+    private int[] ints = new int[16];
+
+    public RequestTokenizer reset(CharSequence request) {
+        this.request = request;
+        start = end = 0;
+        return this;
+    }
+
+    /* Returns false if there are no more words */
+    public boolean next() {
+        int i = end;
+        while (i < request.length() && request.charAt(i) == ' ') {
+            i++;
+        }
+        start = i;
+        while (i < request.length() && request.charAt(i) != ' ') {
+            i++;
+        }
+        end = i;
+        return start < end;
+    }
+
+    public CharSequence request() {
+        return request;
+    }
+
+    /* The bounds of the current word */
+    public int start() {
+        return start;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    public boolean is(String word) {
+        if (end - start != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (request.charAt(start + i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String word() {
+        return request.subSequence(start, end).toString();
+    }
+
+    /* Parses the current word as Integer.parseInt does */
+    public int intValue() {
+        int i = start;
+        final boolean negative = (i < end && request.charAt(i) == '-');
+        if (i < end && (negative || request.charAt(i) == '+')) {
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("For input string: \"" + word() + "\"");
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            final char c = request.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("For input string: \"" + word() + "\"");
+            }
+            value = value * 10 + (c - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("For input string: \"" + word() + "\"");
+            }
+        }
+        value = (negative ? -value : value);
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("For input string: \"" + word() + "\"");
+        }
+        return (int) value;
+    }
+
+    /* Parses the rest of the words as numbers into ints(), returns how many there were */
+    public int readInts() {
+        int count = 0;
+        while (next()) {
+            if (count == ints.length) {
+                ints = Arrays.copyOf(ints, count * 2);
+            }
+            ints[count++] = intValue();
+        }
+        return count;
+    }
+
+    public int[] ints() {
+        return ints;
+    }
+
+    /* The rest of the words, for the requests which need their text anyway */
+    public List<String> words() {
+        List<String> words = new ArrayList<>();
+        while (next()) {
+            words.add(word());
+        }
+        return words;
+    }
+}
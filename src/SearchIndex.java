@@ -0,0 +1,242 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/* An inverted index of the words of the titles and the details of the tasks.
+   A word is a run of letters and digits, compared in lower case. Every word keeps the sorted ids of its tasks;
+   the new tasks get the greatest ids, so adding a task usually appends its id to the ends of the arrays.
+   The words are kept sorted as well, so a prefix is looked up as a range of them.
+   The index is changed together with the list and is not thread-safe
+ */
+public class SearchIndex {
+    /* The sorted ids of the tasks which contain a word */
+    private static class Postings {
+        int[] ids = new int[4];
+        int size = 0;
+
+        boolean add(int id) {
+            if (size > 0 && ids[size - 1] >= id) {
+                int position = Arrays.binarySearch(ids, 0, size, id);
+                if (position >= 0) {
+                    return false;
+                }
+                insert(-position - 1, id);
+                return true;
+            }
+            insert(size, id);
+            return true;
+        }
+
+        private void insert(int position, int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        void remove(int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+                size--;
+            }
+        }
+    }
+
+    private static final Postings EMPTY = new Postings();
+
+    private final TreeMap<String, Postings> words = new TreeMap<>();
+
+    public void add(TaskEntry entry) {
+        final Task task = entry.toTask();
+        forEachWord(task, word -> words.computeIfAbsent(word, w -> new Postings()).add(task.getId()));
+    }
+
+    public void remove(TaskEntry entry) {
+        final Task task = entry.toTask();
+        forEachWord(task, word -> {
+            Postings postings = words.get(word);
+            if (postings != null) {
+                postings.remove(task.getId());
+                if (postings.size == 0) {
+                    words.remove(word);
+                }
+            }
+        });
+    }
+
+    /* For the edits of a task: its id stays the same, but the words may change */
+    public void replace(TaskEntry previous, TaskEntry entry) {
+        remove(previous);
+        add(entry);
+    }
+
+    private static void forEachWord(Task task, Consumer<String> action) {
+        forEachWord(task.getTitle(), action);
+        forEachWord(task.getDetails(), action);
+    }
+
+    static void forEachWord(String text, Consumer<String> action) {
+        if (text == null) {
+            return;
+        }
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            final char c = (i < text.length() ? text.charAt(i) : ' ');
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                action.accept(word.toString());
+                word.setLength(0);
+            }
+        }
+    }
+
+    /* Returns the sorted ids of the tasks which match the query.
+       The words of the query must all be found in a task, a word ending with * matches any word with that
+       beginning, and | separates the alternatives: "buy milk | shop*" finds the tasks with both "buy" and "milk"
+       and the tasks with a word starting with "shop"
+     */
+    public int[] search(String query) {
+        Postings found = EMPTY;
+        for (String alternative : query.split("\\|")) {
+            found = union(found, searchAll(alternative));
+        }
+        return Arrays.copyOf(found.ids, found.size);
+    }
+
+    /* The tasks which have all the words of the alternative */
+    private Postings searchAll(String alternative) {
+        List<Postings> matches = new ArrayList<>();
+        for (String term : alternative.split(" ")) {
+            final boolean prefix = term.endsWith("*");
+            forEachWord(prefix ? term.substring(0, term.length() - 1) : term, word -> matches.add(prefix ? prefixed(word) : exact(word)));
+        }
+        if (matches.isEmpty()) {
+            return EMPTY;
+        }
+        /* the shortest lists go first, so the intersections only get shorter */
+        matches.sort(Comparator.comparingInt(ids -> ids.size));
+        Postings found = matches.get(0);
+        for (int i = 1; i < matches.size() && found.size > 0; i++) {
+            found = intersection(found, matches.get(i));
+        }
+        return found;
+    }
+
+    /* The postings of the index are returned as they are, they are only read by the search */
+    private Postings exact(String word) {
+        return words.getOrDefault(word, EMPTY);
+    }
+
+    /* A short prefix may have thousands of words, so their ids are gathered into a bitmap rather than merged.
+       The bitmap spans the ids from the least to the greatest one, so it is used only when they are dense
+       enough; the ids which are far apart, as the ones kept from a file may be, are sorted instead
+     */
+    private Postings prefixed(String prefix) {
+        Collection<Postings> range = words.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+        if (range.size() < 2) {
+            return (range.isEmpty() ? EMPTY : range.iterator().next());
+        }
+        int least = Integer.MAX_VALUE;
+        int last = 0;
+        int postings = 0;
+        for (Postings word : range) {
+            least = Math.min(least, word.ids[0]);
+            last = Math.max(last, word.ids[word.size - 1]);
+            postings += word.size;
+        }
+        Postings found = new Postings();
+        if ((last - least) >>> 6 > postings) {
+            int[] ids = new int[postings];
+            for (Postings word : range) {
+                System.arraycopy(word.ids, 0, ids, found.size, word.size);
+                found.size += word.size;
+            }
+            Arrays.sort(ids);
+            found.ids = ids;
+            found.size = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (i == 0 || ids[i] != ids[i - 1]) {
+                    ids[found.size++] = ids[i];
+                }
+            }
+            return found;
+        }
+        final int base = least & ~63;
+        long[] bitmap = new long[((last - base) >>> 6) + 1];
+        for (Postings word : range) {
+            for (int i = 0; i < word.size; i++) {
+                final int bit = word.ids[i] - base;
+                bitmap[bit >>> 6] |= 1L << bit;
+            }
+        }
+        int total = 0;
+        for (long bits : bitmap) {
+            total += Long.bitCount(bits);
+        }
+        found.ids = new int[total];
+        for (int i = 0; i < bitmap.length; i++) {
+            for (long bits = bitmap[i]; bits != 0; bits &= bits - 1) {
+                found.ids[found.size++] = base + (i << 6) + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return found;
+    }
+
+    /* Looks up every id of the shorter list in the longer one with galloping, so a rare word is cheap
+       to intersect with a frequent one
+     */
+    private static Postings intersection(Postings shorter, Postings longer) {
+        Postings result = new Postings();
+        result.ids = new int[shorter.size];
+        int from = 0;
+        for (int i = 0; i < shorter.size && from < longer.size; i++) {
+            final int id = shorter.ids[i];
+            int step = 1;
+            int to = from;
+            while (to < longer.size && longer.ids[to] < id) {
+                from = to + 1;
+                to += step;
+                step <<= 1;
+            }
+            int position = Arrays.binarySearch(longer.ids, from, Math.min(to + 1, longer.size), id);
+            if (position >= 0) {
+                result.ids[result.size++] = id;
+                from = position + 1;
+            } else {
+                from = -position - 1;
+            }
+        }
+        return result;
+    }
+
+    private static Postings union(Postings first, Postings second) {
+        if (first.size == 0) {
+            return second;
+        }
+        if (second.size == 0) {
+            return first;
+        }
+        Postings result = new Postings();
+        result.ids = new int[first.size + second.size];
+        int i = 0, j = 0;
+        while (i < first.size || j < second.size) {
+            if (j == second.size || (i < first.size && first.ids[i] < second.ids[j])) {
+                result.ids[result.size++] = first.ids[i++];
+            } else if (i == first.size || second.ids[j] < first.ids[i]) {
+                result.ids[result.size++] = second.ids[j++];
+            } else {
+                result.ids[result.size++] = first.ids[i++];
+                j++;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,185 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+public class SearchTester {
+    private static final String[] VOCABULARY = {"buy", "milk", "Bread", "butter", "call", "mom", "shop", "shopping",
+            "shops", "bug", "BUGS", "fix", "x", "42", "release", "relax", "read"};
+    private static Random rnd = new Random();
+
+    private String randomText(int words, String separator) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(separator.charAt(rnd.nextInt(separator.length())));
+            }
+            text.append(VOCABULARY[rnd.nextInt(VOCABULARY.length)]);
+        }
+        return text.toString();
+    }
+
+    private Task randomTask(int id) {
+        Task task = new Task(id);
+        task.setTitle(randomText(1 + rnd.nextInt(2), " "));
+        task.setDetails(rnd.nextInt(4) == 0 ? null : randomText(rnd.nextInt(12), " ,.-"));
+        return task;
+    }
+
+    private String randomQuery() {
+        StringBuilder query = new StringBuilder();
+        final int alternatives = 1 + rnd.nextInt(2);
+        for (int i = 0; i < alternatives; i++) {
+            if (i > 0) {
+                query.append(" | ");
+            }
+            final int terms = 1 + rnd.nextInt(3);
+            for (int j = 0; j < terms; j++) {
+                String word = VOCABULARY[rnd.nextInt(VOCABULARY.length)];
+                if (rnd.nextInt(3) == 0) {
+                    word = word.substring(0, 1 + rnd.nextInt(word.length())) + "*";
+                }
+                query.append(word).append(' ');
+            }
+        }
+        return query.toString();
+    }
+
+    private static Set<String> words(Task task) {
+        Set<String> words = new HashSet<>();
+        SearchIndex.forEachWord(task.getTitle(), words::add);
+        SearchIndex.forEachWord(task.getDetails(), words::add);
+        return words;
+    }
+
+    private static boolean matches(Task task, String query) {
+        Set<String> words = words(task);
+        for (String alternative : query.split("\\|")) {
+            boolean all = false;
+            for (String term : alternative.trim().split(" ")) {
+                final String lower = term.toLowerCase();
+                final boolean found = (lower.endsWith("*")
+                        ? words.stream().anyMatch(word -> word.startsWith(lower.substring(0, lower.length() - 1)))
+                        : words.contains(lower));
+                all = found;
+                if (!found) {
+                    break;
+                }
+            }
+            if (all) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int[] expected(TreeMap<Integer, Task> tasks, String query) {
+        return tasks.values().stream()
+                .filter(task -> matches(task, query))
+                .mapToInt(Task::getId)
+                .toArray();
+    }
+
+    @Test
+    public void indexTest() {
+        int testNumber = 50;
+        while (testNumber-- > 0) {
+            TreeMap<Integer, Task> tasks = new TreeMap<>();
+            SearchIndex index = new SearchIndex();
+            /* the ids kept from a file may be as sparse as the greatest ones */
+            final int idLimit = new int[]{100, 100000, Integer.MAX_VALUE}[rnd.nextInt(3)];
+            for (int i = 0; i < 500; i++) {
+                int id = rnd.nextInt(idLimit);
+                Task task = randomTask(id);
+                switch (rnd.nextInt(4)) {
+                    case 0:
+                    case 1:
+                        if (tasks.containsKey(id)) {
+                            index.replace(tasks.get(id), task);
+                        } else {
+                            index.add(task);
+                        }
+                        tasks.put(id, task);
+                        break;
+                    case 2:
+                        if (tasks.containsKey(id)) {
+                            index.remove(tasks.remove(id));
+                        }
+                        break;
+                    default:
+                        final String query = randomQuery();
+                        Assert.assertArrayEquals(query, expected(tasks, query), index.search(query));
+                }
+            }
+        }
+    }
+
+    /* The search sees the list as the lists do: an open transaction is not seen until it is committed */
+    @Test
+    public void searchRequestTest() throws IOException {
+        List<Task> initial = new ArrayList<>();
+        for (int id = 1; id <= 300; id++) {
+            initial.add(randomTask(id));
+        }
+        JsonUtills.store(initial, TaskManager.TODO_LIST_FILE);
+        Files.deleteIfExists(Paths.get(TaskManager.TODO_LIST_FILE + TaskManager.JOURNAL_SUFFIX));
+        TaskManager manager = new TaskManager();
+        TreeMap<Integer, Task> tasks = new TreeMap<>();
+        initial.forEach(task -> tasks.put(task.getId(), task));
+        /* the tasks before the open transaction, or null */
+        TreeMap<Integer, Task> shown = null;
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+
+        for (int i = 0; i < 300; i++) {
+            switch (rnd.nextInt(4)) {
+                case 0:
+                    Task task = randomTask(0);
+                    task.setId(manager.add(" -t " + task.getTitle() + (task.getDetails() != null ? " -dt " + task.getDetails() : "")));
+                    tasks.put(task.getId(), task);
+                    break;
+                case 1:
+                    int id = tasks.isEmpty() ? 1 : tasks.ceilingKey(rnd.nextInt(tasks.lastKey() + 1));
+                    manager.remove(id);
+                    tasks.remove(id);
+                    break;
+                case 2:
+                    if (shown == null) {
+                        manager.processRequest("begin", nowhere);
+                        shown = new TreeMap<>(tasks);
+                    } else if (rnd.nextBoolean()) {
+                        manager.processRequest("commit", nowhere);
+                        shown = null;
+                    } else {
+                        manager.processRequest("rollback", nowhere);
+                        tasks.clear();
+                        tasks.putAll(shown);
+                        shown = null;
+                    }
+                    break;
+                default:
+                    final String query = randomQuery();
+                    StringWriter found = new StringWriter();
+                    manager.search(query, found);
+                    TreeMap<Integer, Task> visible = (shown != null ? shown : tasks);
+                    StringBuilder expected = new StringBuilder();
+                    for (int match : expected(visible, query)) {
+                        expected.append(visible.get(match).display());
+                    }
+                    Assert.assertEquals(query + " among " + Arrays.toString(visible.keySet().toArray()), expected.toString(), found.toString());
+            }
+        }
+        manager.close();
+    }
+}
@@ -0,0 +1,299 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ServerTester {
+    private static final int TASKS = 3000;
+    private static final int REQUESTS = 2000;
+    private static Random rnd = new Random();
+
+    private void storeInitialList() throws IOException, TaskException {
+        List<Task> tasks = new ArrayList<>();
+        for (int id = 1; id <= TASKS; id++) {
+            Task task = new Task(id, "task " + id, "details of the task number " + id, (10 + id % 18) + "/" + (1 + id % 12) + "/2025");
+            task.setDone(id % 3 == 0);
+            tasks.add(task);
+        }
+        JsonUtills.store(tasks, TaskManager.TODO_LIST_FILE);
+        Files.deleteIfExists(Paths.get(TaskManager.TODO_LIST_FILE + TaskManager.JOURNAL_SUFFIX));
+    }
+
+    private List<String> randomRequests() {
+        List<String> requests = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            switch (rnd.nextInt(6)) {
+                case 0:
+                    requests.add("add -t added " + i + " -dl 1/1/2030");
+                    break;
+                case 1:
+                    requests.add("remove " + (1 + rnd.nextInt(TASKS + i)));
+                    break;
+                case 2:
+                    requests.add("done " + (1 + rnd.nextInt(TASKS + i)) + " " + (1 + rnd.nextInt(TASKS + i)));
+                    break;
+                case 3:
+                    requests.add("list undone --sort title --limit " + rnd.nextInt(20) + "\r");
+                    break;
+                case 4:
+                    requests.add(rnd.nextInt(50) == 0 ? "list" : "list done --after " + rnd.nextInt(TASKS));
+                    break;
+                default:
+                    requests.add(rnd.nextBoolean() ? "" : "unknown request");
+            }
+        }
+        return requests;
+    }
+
+    private static String readFrame(DataInputStream in) throws IOException {
+        StringBuilder length = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                return null;
+            }
+            length.append((char) c);
+        }
+        byte[] response = new byte[Integer.parseInt(length.toString())];
+        in.readFully(response);
+        return new String(response, StandardCharsets.UTF_8);
+    }
+
+    /* The requests are sent by another thread, so that the server may block on the responses which are not read yet */
+    private List<String> pipeline(int port, List<String> requests) throws IOException, InterruptedException {
+        List<String> responses = new ArrayList<>();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            AtomicReference<IOException> failure = new AtomicReference<>();
+            Thread sender = new Thread(() -> {
+                try {
+                    OutputStream out = socket.getOutputStream();
+                    StringBuilder batch = new StringBuilder();
+                    for (String request : requests) {
+                        batch.append(request).append('\n');
+                        if (rnd.nextInt(10) == 0) {
+                            out.write(batch.toString().getBytes());
+                            batch.setLength(0);
+                        }
+                    }
+                    out.write(batch.toString().getBytes());
+                    out.flush();
+                } catch (IOException e) {
+                    failure.set(e);
+                }
+            });
+            sender.start();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            String response;
+            while (responses.size() < requests.size() && (response = readFrame(in)) != null) {
+                responses.add(response);
+            }
+            sender.join();
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+        }
+        return responses;
+    }
+
+    @Test
+    public void pipelineTest() throws IOException, TaskException, InterruptedException {
+        List<String> requests = randomRequests();
+
+        /* the responses of the console */
+        storeInitialList();
+        TaskManager console = new TaskManager();
+        List<String> expected = new ArrayList<>();
+        for (String request : requests) {
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(response);
+            console.processRequest(request.replace("\r", ""), out);
+            out.flush();
+            expected.add(response.toString());
+        }
+        console.close();
+
+        storeInitialList();
+        TaskManager manager = new TaskManager();
+        TaskServer server = new TaskServer(manager, 0);
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ignored) {
+            }
+        });
+        serving.start();
+        try {
+            List<String> responses = pipeline(server.getPort(), requests);
+            Assert.assertEquals(expected.size(), responses.size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertEquals(requests.get(i), expected.get(i), responses.get(i));
+            }
+        } finally {
+            server.close();
+            serving.join();
+            manager.close();
+        }
+    }
+
+    @Test
+    public void exitTest() throws IOException, TaskException, InterruptedException {
+        storeInitialList();
+        TaskManager manager = new TaskManager();
+        TaskServer server = new TaskServer(manager, 0);
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ignored) {
+            }
+        });
+        serving.start();
+        try {
+            /* the requests after exit are not executed */
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                socket.getOutputStream().write("done 1\nexit\nremove 2\n".getBytes());
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                Assert.assertEquals("Task 1 was marked as done" + System.lineSeparator(), readFrame(in));
+                Assert.assertEquals("", readFrame(in));
+                Assert.assertNull(readFrame(in));
+            }
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                byte[] request = new byte[TaskServer.MAX_REQUEST_LENGTH + 1];
+                Arrays.fill(request, (byte) 'a');
+                socket.getOutputStream().write(request);
+                InputStream in = socket.getInputStream();
+                Assert.assertTrue(readFrame(new DataInputStream(in)).startsWith("Request is too long"));
+                Assert.assertNull(readFrame(new DataInputStream(in)));
+            }
+            Assert.assertEquals(2, manager.cursor(new HashSet<>(), TaskQuery.Order.ID).next(2).get(1).getId());
+        } finally {
+            server.close();
+            serving.join();
+            manager.close();
+        }
+    }
+
+    /* The requests which name files are refused, a failed request is answered with its error */
+    @Test
+    public void refusedRequestsTest() throws IOException, TaskException, InterruptedException {
+        storeInitialList();
+        TaskManager manager = new TaskManager() {
+            @Override
+            public boolean processRequest(String request, PrintStream out, Object client) {
+                if (request.equals("fail")) {
+                    throw new IllegalStateException("failed");
+                }
+                return super.processRequest(request, out, client);
+            }
+        };
+        TaskServer server = new TaskServer(manager, 0);
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ignored) {
+            }
+        });
+        serving.start();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.getOutputStream().write(("load " + TaskManager.TODO_LIST_FILE + "\nbatch requests\nconvert a b\nfail\ndone 1\n").getBytes());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (int i = 0; i < 3; i++) {
+                Assert.assertTrue(readFrame(in).startsWith("Files are not read or written"));
+            }
+            Assert.assertEquals("Couldn't execute the request: java.lang.IllegalStateException: failed" + System.lineSeparator(), readFrame(in));
+            Assert.assertEquals("Task 1 was marked as done" + System.lineSeparator(), readFrame(in));
+            Assert.assertEquals(TASKS, manager.cursor(new HashSet<>(), TaskQuery.Order.ID).next(TASKS + 1).size());
+        } finally {
+            server.close();
+            serving.join();
+            manager.close();
+        }
+    }
+
+    /* The transaction of a connection locks the list for the others and is rolled back when the connection is closed */
+    @Test
+    public void transactionTest() throws IOException, TaskException, InterruptedException {
+        storeInitialList();
+        TaskManager manager = new TaskManager();
+        TaskServer server = new TaskServer(manager, 0);
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ignored) {
+            }
+        });
+        serving.start();
+        try (Socket other = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            DataInputStream otherIn = new DataInputStream(other.getInputStream());
+            try (Socket owner = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                owner.getOutputStream().write("begin\nremove 1\n".getBytes());
+                DataInputStream in = new DataInputStream(owner.getInputStream());
+                Assert.assertEquals("Transaction was started" + System.lineSeparator(), readFrame(in));
+                Assert.assertEquals("Task 1 was removed successfully" + System.lineSeparator(), readFrame(in));
+
+                other.getOutputStream().write("done 2\ncommit\nlist --limit 1\n".getBytes());
+                Assert.assertTrue(readFrame(otherIn).startsWith("The list is changed in a transaction of another client"));
+                Assert.assertTrue(readFrame(otherIn).startsWith("The list is changed in a transaction of another client"));
+                Assert.assertTrue(readFrame(otherIn).contains("task 1"));
+            }
+            /* the owner has gone without the commit, so its removal is discarded and the list is free again */
+            String response = "";
+            for (int attempt = 0; attempt < 100 && !response.startsWith("Task 2"); attempt++) {
+                other.getOutputStream().write("done 2\n".getBytes());
+                response = readFrame(otherIn);
+                if (!response.startsWith("Task 2")) {
+                    Thread.sleep(10);
+                }
+            }
+            Assert.assertEquals("Task 2 was marked as done" + System.lineSeparator(), response);
+            Assert.assertEquals(TASKS, manager.cursor(new HashSet<>(), TaskQuery.Order.ID).next(TASKS + 1).size());
+        } finally {
+            server.close();
+            serving.join();
+            manager.close();
+        }
+    }
+
+    /* The titles are sent and shown in UTF-8, and the frames count its bytes, whatever the default charset is */
+    @Test
+    public void unicodeTest() throws IOException, TaskException, InterruptedException {
+        storeInitialList();
+        TaskManager manager = new TaskManager();
+        TaskServer server = new TaskServer(manager, 0);
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ignored) {
+            }
+        });
+        serving.start();
+        final String title = "\u043a\u0443\u043f\u0438\u0442\u044c \u043c\u043e\u043b\u043e\u043a\u043e \u2713";
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.getOutputStream().write(("add -t " + title + "\nsearch \u043c\u043e\u043b\u043e\u043a\u043e\n").getBytes(StandardCharsets.UTF_8));
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            Assert.assertEquals("Task was added successfully" + System.lineSeparator(), readFrame(in));
+            Task added = new Task(TASKS + 1, title, null, null);
+            Assert.assertEquals(added.display(), readFrame(in));
+        } finally {
+            server.close();
+            serving.join();
+            manager.close();
+        }
+    }
+}
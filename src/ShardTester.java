@@ -0,0 +1,254 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class ShardTester {
+    private static final int SHARDS = 3;
+    private static final String TOKENS = "abcdefghij ";
+    private static final String BATCH_FILE = "shard-test.batch";
+    private static final Pattern TASK_ID = Pattern.compile("^Task (\\d+)", Pattern.MULTILINE);
+    private static final Config CONFIG = new Config(100000, Config.defaults().getMemory(), false).withShards(SHARDS);
+    private static Random rnd = new Random();
+
+    private static String randomTitle() {
+        StringBuilder title = new StringBuilder("t");
+        final int length = 1 + rnd.nextInt(6);
+        for (int i = 0; i < length; i++) {
+            title.append(TOKENS.charAt(rnd.nextInt(TOKENS.length())));
+        }
+        return title.toString().trim();
+    }
+
+    private static String request(RequestProcessor manager, final String request) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        manager.processRequest(request, new PrintStream(out));
+        return out.toString();
+    }
+
+    private static List<Integer> ids(final String list) {
+        List<Integer> ids = new ArrayList<>();
+        Matcher matcher = TASK_ID.matcher(list);
+        while (matcher.find()) {
+            ids.add(Integer.parseInt(matcher.group(1)));
+        }
+        return ids;
+    }
+
+    private static String display(Iterable<Task> tasks) {
+        StringBuilder expected = new StringBuilder();
+        for (Task task : tasks) {
+            expected.append(task.display());
+        }
+        return expected.toString();
+    }
+
+    private static void deleteShards() throws IOException {
+        for (int k = 0; k < SHARDS; k++) {
+            for (String suffix : new String[]{"", TaskManager.JOURNAL_SUFFIX, ".tmp"}) {
+                Files.deleteIfExists(Paths.get(ShardedTaskManager.filename(k) + suffix));
+            }
+        }
+    }
+
+    @Test
+    public void idTest() {
+        int testNumber = 20;
+        while (testNumber-- > 0) {
+            final int shards = 1 + rnd.nextInt(8);
+            final int shard = rnd.nextInt(shards);
+            IdAllocator ids = new IdAllocator(shard, shards);
+            ids.advanceTo(rnd.nextInt(10000));
+            int last = 0;
+            for (int i = 0; i < 5000; i++) {
+                final int id = ids.next();
+                Assert.assertTrue(id > last);
+                Assert.assertEquals(shard, IdAllocator.shardOf(id, shards));
+                /* the ids of a block are not skipped */
+                Assert.assertTrue(last == 0 || id == last + 1 || id % IdAllocator.BLOCK_IDS == 0);
+                last = id;
+            }
+            /* the last ids of the shard are given out, then no more */
+            ids.advanceTo(Integer.MAX_VALUE - rnd.nextInt(shards * IdAllocator.BLOCK_IDS));
+            last = 0;
+            for (int id = ids.next(); id != IdAllocator.NO_ID; id = ids.next()) {
+                Assert.assertTrue(id > last);
+                Assert.assertEquals(shard, IdAllocator.shardOf(id, shards));
+                last = id;
+            }
+            Assert.assertEquals(IdAllocator.NO_ID, ids.next());
+        }
+    }
+
+    @Test
+    public void shardTest() throws IOException {
+        deleteShards();
+        ShardedTaskManager manager = new ShardedTaskManager(CONFIG);
+        final int adds = 2 * SHARDS * IdAllocator.BLOCK_IDS + rnd.nextInt(1000);
+        for (int i = 0; i < adds; i++) {
+            request(manager, "add -t " + randomTitle());
+        }
+
+        Map<Integer, Task> expected = new TreeMap<>();
+        for (int k = 0; k < SHARDS; k++) {
+            final int shard = k;
+            Assert.assertTrue(Math.abs(manager.shard(k).published().size() - adds / SHARDS) <= 1);
+            manager.shard(k).published().forEachEntry(entry -> {
+                Assert.assertEquals(shard, IdAllocator.shardOf(entry.getId(), SHARDS));
+                expected.put(entry.getId(), new Task(entry.toTask()));
+            });
+        }
+        Assert.assertEquals(display(expected.values()), request(manager, "list"));
+
+        /* the ids of one request go to different shards */
+        StringBuilder remove = new StringBuilder("remove");
+        StringBuilder done = new StringBuilder("done");
+        for (int id : new ArrayList<>(expected.keySet())) {
+            if (rnd.nextInt(5) == 0) {
+                remove.append(' ').append(id);
+                expected.remove(id);
+            } else if (rnd.nextInt(3) == 0) {
+                done.append(' ').append(id);
+                expected.get(id).setDone(true);
+            }
+        }
+        request(manager, remove.toString());
+        request(manager, done.toString());
+        Assert.assertTrue(request(manager, "remove 0").startsWith("No task with id 0"));
+
+        List<Task> undone = new ArrayList<>();
+        List<Task> byTitle = new ArrayList<>(expected.values());
+        expected.values().stream().filter(task -> !task.isDone()).forEach(undone::add);
+        byTitle.sort(Comparator.comparing(Task::getTitle).thenComparingInt(Task::getId));
+        Assert.assertEquals(display(expected.values()), request(manager, "list"));
+        Assert.assertEquals(display(undone), request(manager, "list undone"));
+        Assert.assertEquals(display(byTitle), request(manager, "list --sort title"));
+
+        /* the pages follow each other across the shards */
+        for (String sort : new String[]{"id", "title"}) {
+            final int limit = 1 + rnd.nextInt(500);
+            List<Integer> paged = new ArrayList<>();
+            List<Integer> page = ids(request(manager, "list --sort " + sort + " --limit " + limit));
+            while (!page.isEmpty()) {
+                paged.addAll(page);
+                page = ids(request(manager, "list --sort " + sort + " --limit " + limit + " --after " + page.get(page.size() - 1)));
+            }
+            Assert.assertEquals(ids(display(sort.equals("id") ? expected.values() : byTitle)), paged);
+        }
+
+        final String title = byTitle.get(rnd.nextInt(byTitle.size())).getTitle();
+        List<Task> found = new ArrayList<>();
+        expected.values().stream().filter(task -> task.getTitle().equals(title)).forEach(found::add);
+        Assert.assertTrue(ids(request(manager, "search " + title)).containsAll(ids(display(found))));
+        Assert.assertTrue(request(manager, "undo").startsWith("Undo, redo and transactions are not supported"));
+
+        Files.write(Paths.get(BATCH_FILE), List.of("add -t batched", "add -t batched", "add -t batched",
+                "remove " + expected.keySet().iterator().next(), "exit", "add -t ignored"));
+        Assert.assertEquals(SHARDS, request(manager, "batch " + BATCH_FILE).split("Executed").length - 1);
+        expected.remove(expected.keySet().iterator().next());
+        Assert.assertEquals(expected.size() + 3, ids(request(manager, "list")).size());
+        Assert.assertEquals(0, ids(request(manager, "search ignored")).size());
+        Files.delete(Paths.get(BATCH_FILE));
+
+        final String list = request(manager, "list");
+        manager.storeChanges(true);
+        manager.close();
+        for (int k = 0; k < SHARDS; k++) {
+            Assert.assertTrue(Files.exists(Paths.get(ShardedTaskManager.filename(k))));
+        }
+        manager = new ShardedTaskManager(CONFIG);
+        Assert.assertEquals(list, request(manager, "list"));
+        request(manager, "add -t restored");
+        Assert.assertEquals(1, ids(request(manager, "search restored")).size());
+        manager.close();
+        deleteShards();
+    }
+
+    @Test
+    public void loadTest() throws IOException {
+        deleteShards();
+        final String file = "shard-test.json";
+        List<Task> tasks = new ArrayList<>();
+        final int number = SHARDS * IdAllocator.BLOCK_IDS + rnd.nextInt(2000);
+        for (int i = 0; i < number; i++) {
+            Task task = new Task(i + 1);
+            task.setTitle(randomTitle());
+            tasks.add(task);
+        }
+        JsonUtills.store(tasks, file);
+        ShardedTaskManager manager = new ShardedTaskManager(CONFIG);
+        request(manager, "load " + file);
+        for (int k = 0; k < SHARDS; k++) {
+            Assert.assertTrue(manager.shard(k).published().size() >= IdAllocator.BLOCK_IDS - 1);
+        }
+        List<String> titles = new ArrayList<>();
+        for (int k = 0; k < SHARDS; k++) {
+            for (Task task : manager.shard(k).cursor(new HashSet<>(), TaskQuery.Order.ID).next(Integer.MAX_VALUE)) {
+                titles.add(task.getTitle());
+            }
+        }
+        List<String> expected = new ArrayList<>();
+        tasks.forEach(task -> expected.add(task.getTitle()));
+        titles.sort(null);
+        expected.sort(null);
+        Assert.assertEquals(expected, titles);
+        Assert.assertEquals(number, ids(request(manager, "list")).size());
+        Assert.assertTrue(request(manager, "load missing-" + file).contains("does not contain tasks"));
+        manager.close();
+        Files.delete(Paths.get(file));
+        deleteShards();
+    }
+
+    /* The list of one file is split between the shards with its journal and ids, then the number of the shards is fixed */
+    @Test
+    public void migrationTest() throws IOException {
+        deleteShards();
+        Files.deleteIfExists(Paths.get(ShardedTaskManager.SHARDS_FILE));
+        List<Task> tasks = new ArrayList<>();
+        final int number = SHARDS * IdAllocator.BLOCK_IDS + rnd.nextInt(2000);
+        for (int i = 0; i < number; i++) {
+            Task task = new Task(i + 1);
+            task.setTitle(randomTitle());
+            tasks.add(task);
+        }
+        JsonUtills.store(tasks, TaskManager.TODO_LIST_FILE);
+        Files.deleteIfExists(Paths.get(TaskManager.TODO_LIST_FILE + TaskManager.JOURNAL_SUFFIX));
+        final Config whole = CONFIG.withShards(1);
+        TaskManager single = new TaskManager(whole);
+        for (int i = 0; i < 100; i++) {
+            request(single, rnd.nextBoolean() ? "add -t " + randomTitle() : "remove " + (1 + rnd.nextInt(number)));
+        }
+        final String list = request(single, "list");
+        single.close();
+
+        Assert.assertTrue(ShardedTaskManager.prepare(CONFIG));
+        Assert.assertFalse(Files.exists(Paths.get(TaskManager.TODO_LIST_FILE)));
+        Assert.assertFalse(Files.exists(Paths.get(TaskManager.TODO_LIST_FILE + TaskManager.JOURNAL_SUFFIX)));
+        ShardedTaskManager manager = new ShardedTaskManager(CONFIG);
+        Assert.assertEquals(list, request(manager, "list"));
+        for (int k = 0; k < SHARDS; k++) {
+            final int shard = k;
+            manager.shard(k).published().forEachEntry(entry -> Assert.assertEquals(shard, IdAllocator.shardOf(entry.getId(), SHARDS)));
+        }
+        manager.close();
+
+        Assert.assertTrue(ShardedTaskManager.prepare(CONFIG));
+        Assert.assertFalse(ShardedTaskManager.prepare(CONFIG.withShards(SHARDS + 1)));
+        Assert.assertFalse(ShardedTaskManager.prepare(whole));
+        Files.delete(Paths.get(ShardedTaskManager.SHARDS_FILE));
+        deleteShards();
+    }
+}
@@ -0,0 +1,498 @@
+import javax.management.JMException;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/* Splits the list into shards, each of them a TaskManager with its own store, journal and snapshot
+   (todo-list.shard-K.json), which is changed only by the worker thread of the shard. The shards share nothing,
+   so there is no lock of the whole list: the changes of different shards are applied in parallel,
+   and a snapshot of one shard holds up the changes of that shard only.
+   The ids are split into ranges of IdAllocator.BLOCK_IDS, and shard K owns the ranges K, K + N, K + 2N and so on,
+   so a request is routed by its ids alone. The new tasks and the runs of the loaded tasks go to the shards in turn.
+   The lists and the searches read the published versions of the shards without their workers and merge them,
+   so a list is consistent within every shard, but not across them.
+   Undo, redo and the transactions would have to span the shards, so they are not supported. A batch is split
+   between the shards, and every shard executes its part as one change.
+   The number of the shards is kept in todo-list.shards, see prepare()
+ */
+public class ShardedTaskManager implements RequestProcessor {
+    private final Config config;
+    private final TaskManager[] shards;
+    private final ExecutorService[] workers;
+    /* the shard of the next added task or loaded file */
+    private final AtomicInteger turn = new AtomicInteger();
+    /* the latencies of the requests as a whole, the lists and the searches are not requests of any shard */
+    private final RequestMetrics latencies = new RequestMetrics(TaskManager.Command.names());
+
+    /* the number of the shards which the files are split into */
+    static final String SHARDS_FILE = TaskManager.TODO_LIST_FILE.substring(0, TaskManager.TODO_LIST_FILE.lastIndexOf('.')) + ".shards";
+
+    private static final ThreadLocal<RequestTokenizer> WORDS = ThreadLocal.withInitial(RequestTokenizer::new);
+
+    /* The part of a request which is executed by one shard */
+    private interface ShardRequest {
+        void execute(TaskManager shard, PrintStream out) throws IOException;
+    }
+
+    /* The shards restore their files in parallel */
+    public ShardedTaskManager(Config config) {
+        this.config = config;
+        final int count = config.getShards();
+        final Config shardConfig = config.forShard();
+        shards = new TaskManager[count];
+        workers = new ExecutorService[count];
+        List<Future<TaskManager>> opened = new ArrayList<>();
+        for (int k = 0; k < count; k++) {
+            final int shard = k;
+            final String filename = filename(shard);
+            workers[k] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread worker = new Thread(runnable, "shard " + filename);
+                worker.setDaemon(true);
+                return worker;
+            });
+            opened.add(workers[k].submit(() -> new TaskManager(shardConfig, filename, new IdAllocator(shard, count))));
+        }
+        try {
+            for (int k = 0; k < count; k++) {
+                shards[k] = opened.get(k).get();
+            }
+        } catch (ExecutionException e) {
+            close();
+            throw new IllegalStateException("Couldn't restore the shards: " + e.getCause(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IllegalStateException("Restoring the shards was interrupted", e);
+        }
+    }
+
+    /* todo-list.json is split into todo-list.shard-0.json, todo-list.shard-1.json and so on */
+    static String filename(int shard) {
+        final String list = TaskManager.TODO_LIST_FILE;
+        final int dot = list.lastIndexOf('.');
+        return list.substring(0, dot) + ".shard-" + shard + list.substring(dot);
+    }
+
+    /* Checks that the files are split into as many shards as the config says, before they are opened.
+       On the first start with the shards the list of one file is split between them: a task goes to the shard
+       which owns its id, so the ids are kept. The shard files are written first and todo-list.shards last,
+       so a split which was interrupted is done again from the whole list on the next start.
+       The shards are not split or joined again, as the ids of the tasks would have to move between the files:
+       a different number of the shards in the config is refused, as is a single file when the list is split.
+       Returns false if the list cannot be opened, the reason is printed
+     */
+    static boolean prepare(Config config) {
+        final int count = config.getShards();
+        Path shardsFile = Paths.get(SHARDS_FILE);
+        if (Files.exists(shardsFile)) {
+            final int stored;
+            try {
+                stored = Integer.parseInt(new String(Files.readAllBytes(shardsFile)).trim());
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("Couldn't read the number of the shards from " + SHARDS_FILE + ": " + e);
+                return false;
+            }
+            if (stored != count) {
+                System.out.println("The list is split into " + stored + " shards, set shards = " + stored + " in the config to open it");
+                return false;
+            }
+            return true;
+        }
+        return count == 1 || split(config);
+    }
+
+    private static boolean split(Config config) {
+        final int count = config.getShards();
+        final String whole = TaskManager.TODO_LIST_FILE;
+        final String journal = whole + TaskManager.JOURNAL_SUFFIX;
+        List<List<Task>> parts = new ArrayList<>();
+        for (int k = 0; k < count; k++) {
+            parts.add(new ArrayList<>());
+        }
+        final boolean migrated = Files.exists(Paths.get(whole)) || Files.exists(Paths.get(journal));
+        if (migrated) {
+            /* the whole list is restored as it is, with the changes of its journal */
+            TaskManager list = new TaskManager(config.withShards(1));
+            list.published().forEachEntry(entry -> parts.get(IdAllocator.shardOf(entry.getId(), count)).add(entry.toTask()));
+            list.close();
+        }
+        final int capacity = config.forShard().getCapacity();
+        for (int k = 0; k < count; k++) {
+            if (parts.get(k).size() > capacity) {
+                System.out.println("Couldn't split the list into " + count + " shards: shard " + k + " would get "
+                        + parts.get(k).size() + " tasks, but it holds " + capacity);
+                return false;
+            }
+        }
+        try {
+            if (migrated) {
+                for (int k = 0; k < count; k++) {
+                    Path tmp = Paths.get(filename(k) + ".tmp");
+                    if (!config.getJsonFormat().store(parts.get(k), tmp.toString())) {
+                        return false;
+                    }
+                    Files.move(tmp, Paths.get(filename(k)), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    Files.deleteIfExists(Paths.get(filename(k) + TaskManager.JOURNAL_SUFFIX));
+                }
+            }
+            Path tmp = Paths.get(SHARDS_FILE + ".tmp");
+            Files.write(tmp, (count + System.lineSeparator()).getBytes());
+            Files.move(tmp, Paths.get(SHARDS_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (migrated) {
+                Files.deleteIfExists(Paths.get(journal));
+                Files.deleteIfExists(Paths.get(whole));
+                System.out.println("Tasks list " + whole + " was split into " + count + " shards");
+            }
+            return true;
+        } catch (IOException e) {
+            System.out.println("Couldn't split the list into " + count + " shards: " + e.getMessage());
+        }
+        return false;
+    }
+
+    public int getShards() {
+        return shards.length;
+    }
+
+    TaskManager shard(int shard) {
+        return shards[shard];
+    }
+
+    private int nextShard() {
+        return Math.floorMod(turn.getAndIncrement(), shards.length);
+    }
+
+    @Override
+    public boolean processRequest(final String request, PrintStream out) {
+        final long start = System.nanoTime();
+        RequestTokenizer words = WORDS.get().reset(request);
+        final TaskManager.Command command = TaskManager.Command.of(words);
+        try {
+            return execute(command, words, request, out);
+        } finally {
+            latencies.record(command.ordinal(), System.nanoTime() - start);
+        }
+    }
+
+    private boolean execute(TaskManager.Command command, RequestTokenizer words, final String request, PrintStream out) {
+        switch (command) {
+            case EXIT:
+                return false;
+            case BATCH:
+                List<String> batch = words.words();
+                if (batch.size() != 1) {
+                    out.println("Batch file expected in this request");
+                } else {
+                    batch(batch.get(0), out);
+                }
+                return true;
+            case ADD:
+                execute(nextShard(), (shard, shardOut) -> shard.processRequest(request, shardOut), out);
+                return true;
+            case LOAD:
+                load(words.words(), out);
+                return true;
+            case REMOVE:
+            case DONE:
+                final int count;
+                try {
+                    count = words.readInts();
+                } catch (NumberFormatException e) {
+                    out.println("Only id numbers expected in this request");
+                    return true;
+                }
+                change(command, count, words.ints(), out);
+                return true;
+            case LIST:
+            case SEARCH:
+                Writer writer = RequestProcessor.writer(out);
+                try {
+                    if (command == TaskManager.Command.LIST) {
+                        list(words, writer);
+                    } else {
+                        search(request.substring(words.end()), writer);
+                    }
+                    writer.flush();
+                } catch (IOException e) {
+                    out.println("Couldn't print tasks list: " + e.getMessage());
+                }
+                return true;
+            case STATS:
+                out.println("Whole list:");
+                latencies.print(out);
+                for (int k = 0; k < shards.length; k++) {
+                    out.println("Shard " + k + ", " + filename(k) + ":");
+                    shards[k].getMetrics().print(out);
+                }
+                return true;
+            case BEGIN:
+            case COMMIT:
+            case ROLLBACK:
+            case UNDO:
+            case REDO:
+                out.println("Undo, redo and transactions are not supported when the list is split into shards");
+                return true;
+            default:
+                /* convert and the unsupported requests don't touch the list */
+                return shards[0].processRequest(request, out);
+        }
+    }
+
+    /* The ids of every shard are changed by one request to it */
+    private void change(TaskManager.Command command, int count, int[] ids, PrintStream out) {
+        StringBuilder[] parts = new StringBuilder[shards.length];
+        for (int i = 0; i < count; i++) {
+            final int k = IdAllocator.shardOf(ids[i], shards.length);
+            if (parts[k] == null) {
+                parts[k] = new StringBuilder(command.name().toLowerCase());
+            }
+            parts[k].append(' ').append(ids[i]);
+        }
+        ShardRequest[] requests = new ShardRequest[shards.length];
+        for (int k = 0; k < shards.length; k++) {
+            if (parts[k] != null) {
+                final String part = parts[k].toString();
+                requests[k] = (shard, shardOut) -> shard.processRequest(part, shardOut);
+            }
+        }
+        execute(requests, out);
+    }
+
+    /* The tasks of a file are split between the shards in runs of IdAllocator.BLOCK_IDS, so the shards stay even,
+       and the shards add their parts in parallel. A binary file is read rather than mapped, as it is split
+     */
+    private void load(List<String> filenames, PrintStream out) {
+        for (String filename : filenames) {
+            int size = 0;
+            for (TaskManager shard : shards) {
+                size += shard.published().size();
+            }
+            LoadResult read = TaskFormat.detect(filename).load(filename, Math.max(0, config.getCapacity() - size));
+            List<Task> tasks = read.getTasks();
+            List<List<Task>> parts = new ArrayList<>();
+            for (int k = 0; k < shards.length; k++) {
+                parts.add(new ArrayList<>());
+            }
+            for (int from = 0; from < tasks.size(); from += IdAllocator.BLOCK_IDS) {
+                parts.get(nextShard()).addAll(tasks.subList(from, Math.min(tasks.size(), from + IdAllocator.BLOCK_IDS)));
+            }
+            /* a file without tasks is reported by one of the shards */
+            final int reporting = (tasks.isEmpty() ? nextShard() : -1);
+            ShardRequest[] requests = new ShardRequest[shards.length];
+            boolean first = true;
+            for (int k = 0; k < shards.length; k++) {
+                final List<Task> part = parts.get(k);
+                if (!part.isEmpty() || k == reporting) {
+                    /* the tasks which didn't fit are reported once */
+                    final int skipped = (first ? read.getSkipped() : 0);
+                    requests[k] = (shard, shardOut) -> shard.load(filename, new LoadResult(part, skipped), shardOut);
+                    first = false;
+                }
+            }
+            execute(requests, out);
+        }
+    }
+
+    /* Takes the words which follow the current one */
+    private void list(RequestTokenizer words, Writer out) throws IOException {
+        TaskManager.ListRequest request = TaskManager.ListRequest.parse(words, out);
+        if (request == null) {
+            return;
+        }
+        TaskStore[] versions = new TaskStore[shards.length];
+        for (int k = 0; k < shards.length; k++) {
+            versions[k] = shards[k].published();
+        }
+        TaskEntry afterEntry = null;
+        if (request.hasAfter) {
+            afterEntry = request.after(versions[IdAllocator.shardOf(request.after, shards.length)]);
+            if (afterEntry == null) {
+                out.write("No task with id " + request.after + System.lineSeparator());
+                return;
+            }
+        }
+        final long now = System.currentTimeMillis();
+        try {
+            request.query.forEach(versions, afterEntry, request.limit, now, task -> {
+                try {
+                    task.toTask().display(out, now);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /* Every shard searches its own index, the results are printed in id order */
+    private void search(final String query, Writer out) throws IOException {
+        List<TaskEntry> found = new ArrayList<>();
+        for (TaskManager shard : shards) {
+            found.addAll(shard.find(query));
+        }
+        found.sort(Comparator.comparingInt(TaskEntry::getId));
+        final long now = System.currentTimeMillis();
+        for (TaskEntry entry : found) {
+            entry.toTask().display(out, now);
+        }
+    }
+
+    /* The requests are split between the shards in their order, so every shard executes its requests as they
+       would be executed one by one. The messages are not printed, only the summary of every shard.
+       The exit request ends the batch
+     */
+    @Override
+    public void batch(BufferedReader reader, PrintStream out) throws IOException {
+        StringBuilder[] parts = new StringBuilder[shards.length];
+        for (int k = 0; k < shards.length; k++) {
+            parts[k] = new StringBuilder();
+        }
+        RequestTokenizer words = new RequestTokenizer();
+        String request;
+        while ((request = reader.readLine()) != null) {
+            final TaskManager.Command command = TaskManager.Command.of(words.reset(request));
+            if (command == TaskManager.Command.EXIT) {
+                break;
+            }
+            if (command == TaskManager.Command.ADD || command == TaskManager.Command.LOAD) {
+                parts[nextShard()].append(request).append('\n');
+            } else if (command == TaskManager.Command.REMOVE || command == TaskManager.Command.DONE) {
+                int count;
+                try {
+                    count = words.readInts();
+                } catch (NumberFormatException e) {
+                    /* the shard only tells that the request is wrong */
+                    parts[0].append(request).append('\n');
+                    continue;
+                }
+                final int[] ids = words.ints();
+                for (int i = 0; i < count; i++) {
+                    parts[IdAllocator.shardOf(ids[i], shards.length)].append(command.name().toLowerCase())
+                            .append(' ').append(ids[i]).append('\n');
+                }
+            } else {
+                parts[0].append(request).append('\n');
+            }
+        }
+
+        ShardRequest[] requests = new ShardRequest[shards.length];
+        for (int k = 0; k < shards.length; k++) {
+            if (parts[k].length() > 0) {
+                final int shard = k;
+                final String part = parts[k].toString();
+                requests[k] = (manager, shardOut) -> {
+                    shardOut.print("Shard " + shard + ": ");
+                    manager.batch(new BufferedReader(new StringReader(part)), shardOut);
+                };
+            }
+        }
+        execute(requests, out);
+    }
+
+    /* Runs the request on the worker of the shard and waits for it */
+    private void execute(int shard, ShardRequest request, PrintStream out) {
+        Future<?> done = workers[shard].submit(() -> {
+            request.execute(shards[shard], out);
+            return null;
+        });
+        await(shard, done, out);
+    }
+
+    /* Runs the requests (null for the shards which have nothing to do) at once, and prints their messages
+       in the order of the shards
+     */
+    private void execute(ShardRequest[] requests, PrintStream out) {
+        List<Future<byte[]>> results = new ArrayList<>();
+        for (int k = 0; k < shards.length; k++) {
+            final int shard = k;
+            final ShardRequest request = requests[k];
+            results.add(request == null ? null : workers[k].submit(() -> {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                PrintStream shardOut = new PrintStream(buffer);
+                request.execute(shards[shard], shardOut);
+                shardOut.flush();
+                return buffer.toByteArray();
+            }));
+        }
+        for (int k = 0; k < shards.length; k++) {
+            if (results.get(k) != null) {
+                byte[] printed = await(k, results.get(k), out);
+                if (printed != null) {
+                    out.write(printed, 0, printed.length);
+                }
+            }
+        }
+    }
+
+    /* Returns null if the request failed, the reason is printed to out */
+    private static <T> T await(int shard, Future<T> result, PrintStream out) {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            out.println("Couldn't execute the request in shard " + shard + ": " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            out.println("The request to shard " + shard + " was interrupted");
+        }
+        return null;
+    }
+
+    /* Every shard writes its own snapshot, on its own worker */
+    @Override
+    public void storeChanges(boolean forced) {
+        ShardRequest[] requests = new ShardRequest[shards.length];
+        for (int k = 0; k < shards.length; k++) {
+            requests[k] = (shard, shardOut) -> shard.storeChanges(forced);
+        }
+        execute(requests, System.out);
+    }
+
+    @Override
+    public void addExpiryListener(Consumer<Task> listener) {
+        for (TaskManager shard : shards) {
+            shard.addExpiryListener(listener);
+        }
+    }
+
+    /* Every shard is shown by JMX under the name of its file, the requests as a whole under the name of the list */
+    @Override
+    public void registerMetrics() {
+        try {
+            latencies.register(TaskManager.TODO_LIST_FILE);
+        } catch (JMException e) {
+            System.out.println("Couldn't register the metrics: " + e.getMessage());
+        }
+        for (TaskManager shard : shards) {
+            shard.registerMetrics();
+        }
+    }
+
+    @Override
+    public void close() {
+        latencies.unregister();
+        ShardRequest[] requests = new ShardRequest[shards.length];
+        for (int k = 0; k < shards.length; k++) {
+            if (shards[k] != null) {
+                requests[k] = (shard, shardOut) -> shard.close();
+            }
+        }
+        execute(requests, System.out);
+        for (ExecutorService worker : workers) {
+            if (worker != null) {
+                worker.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,597 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/* Tasks list which is changed in place: every task takes a run of fixed slots, so a change rewrites
+   only the slots of its task with a positional write, and nothing has to be replayed on load.
+
+       header    one slot:
+                   magic     4 bytes   "SLOT"
+                   version   4 bytes
+       runs      till the end of the file, one or more slots each:
+                   kind      1 byte    FREE or TASK, a free run has only the kind and the length
+                   done      1 byte
+                   slots     2 bytes   length of the run
+                   stamp     8 bytes   number of the write, the latest copy of a task wins
+                   id        4 bytes
+                   deadline  8 bytes   epoch millis or NO_DEADLINE
+                   title     4 bytes   length of the UTF-8 bytes, -1 for none
+                   details   4 bytes   the same
+                   the bytes of the title and of the details
+
+   Marking a task as done writes one byte and removing it writes one byte. A task which no longer fits into
+   its run is written into a free run or at the end first, and only then its old run is freed, so a crash
+   in between leaves two copies of the task, and the one with the greater stamp is kept.
+   The free runs are reused by the tasks of the same or a smaller size, but they are not merged:
+   the file is packed only when it is written anew.
+   The runs are found by the task id in a hash table, which grows with the number of the tasks rather than
+   with their greatest id: the ids kept from a file and the ids of the shards may be far apart
+ */
+public class SlotFile implements Journal.Listener {
+    public static final byte[] MAGIC = {'S', 'L', 'O', 'T'};
+    public static final String EXTENSION = ".slots";
+    private static final int VERSION = 1;
+    static final int SLOT_SIZE = 64;
+    private static final int MAX_SLOTS = 0xffff;
+
+    private static final byte FREE = 0;
+    private static final byte TASK = 1;
+    private static final int DONE_OFFSET = 1;
+    private static final int RECORD_HEADER = 32;
+
+    /* The first slot and the length of the run of every task, by its id. The ids are positive, so 0 marks
+       an empty entry; the entries are probed linearly, and a removed one is filled by the entries after it
+       rather than marked, so the lookups never pass the removed tasks
+     */
+    private static class Runs {
+        private int[] ids = new int[1024];
+        private int[] firsts = new int[1024];
+        private char[] lengths = new char[1024];
+        private int bits = 10;
+        private int size = 0;
+
+        private int home(int id) {
+            return (id * 0x9E3779B9) >>> (32 - bits);
+        }
+
+        private int find(int id) {
+            if (id <= 0) {
+                return -1;
+            }
+            final int mask = ids.length - 1;
+            for (int i = home(id); ids[i] != 0; i = (i + 1) & mask) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /* The first slot of the run, 0 if there is no task */
+        int first(int id) {
+            final int i = find(id);
+            return (i < 0 ? 0 : firsts[i]);
+        }
+
+        int length(int id) {
+            final int i = find(id);
+            return (i < 0 ? 0 : lengths[i]);
+        }
+
+        void put(int id, int first, int length) {
+            if (2 * (size + 1) > ids.length) {
+                grow();
+            }
+            final int mask = ids.length - 1;
+            int i = home(id);
+            while (ids[i] != 0 && ids[i] != id) {
+                i = (i + 1) & mask;
+            }
+            if (ids[i] == 0) {
+                ids[i] = id;
+                size++;
+            }
+            firsts[i] = first;
+            lengths[i] = (char) length;
+        }
+
+        void remove(int id) {
+            int i = find(id);
+            if (i < 0) {
+                return;
+            }
+            final int mask = ids.length - 1;
+            /* an entry after the gap moves into it unless the gap is before its home */
+            for (int j = (i + 1) & mask; ids[j] != 0; j = (j + 1) & mask) {
+                if (((j - home(ids[j])) & mask) >= ((j - i) & mask)) {
+                    ids[i] = ids[j];
+                    firsts[i] = firsts[j];
+                    lengths[i] = lengths[j];
+                    i = j;
+                }
+            }
+            ids[i] = 0;
+            size--;
+        }
+
+        private void grow() {
+            int[] oldIds = ids;
+            int[] oldFirsts = firsts;
+            char[] oldLengths = lengths;
+            bits++;
+            ids = new int[1 << bits];
+            firsts = new int[1 << bits];
+            lengths = new char[1 << bits];
+            size = 0;
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldIds[i] != 0) {
+                    put(oldIds[i], oldFirsts[i], oldLengths[i]);
+                }
+            }
+        }
+    }
+
+    private final FileChannel channel;
+    private final Runs runs = new Runs();
+    /* the starts of the free runs by their length */
+    private final TreeMap<Integer, ArrayDeque<Integer>> free = new TreeMap<>();
+    private int end;
+    private long stamp;
+    private long written = 0;
+    private ByteBuffer buffer = ByteBuffer.allocate(4 * SLOT_SIZE);
+    private final ByteBuffer flag = ByteBuffer.allocate(1);
+
+    private SlotFile(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /* A task as it was read: the run it was read from is kept to tell the copies of the task apart */
+    private static class Record {
+        final Task task;
+        final long stamp;
+        final int slot;
+        final int slots;
+
+        Record(Task task, long stamp, int slot, int slots) {
+            this.task = task;
+            this.stamp = stamp;
+            this.slot = slot;
+            this.slots = slots;
+        }
+    }
+
+    private interface RunConsumer {
+        void accept(Record record) throws IOException;
+
+        void free(int slot, int slots);
+    }
+
+    public static LoadResult load(final String filename, final int limit) {
+        try {
+            Map<Integer, Record> latest = new HashMap<>();
+            read(Paths.get(filename), new RunConsumer() {
+                @Override
+                public void accept(Record record) {
+                    latest.merge(record.task.getId(), record, (a, b) -> a.stamp >= b.stamp ? a : b);
+                }
+
+                @Override
+                public void free(int slot, int slots) {
+                }
+            });
+            /* the runs are reused, so they are not ordered by id */
+            List<Task> loaded = new ArrayList<>(latest.size());
+            latest.values().forEach(record -> loaded.add(record.task));
+            loaded.sort(Comparator.comparingInt(Task::getId));
+            final int number = Math.min(loaded.size(), limit);
+
+            System.out.println("Loaded tasks from file " + filename + " successfully");
+            return new LoadResult(new ArrayList<>(loaded.subList(0, number)), loaded.size() - number);
+        } catch (IOException e) {
+            System.out.println("Couldn't load tasks list: " + e.getMessage());
+        }
+        return LoadResult.empty();
+    }
+
+    /* Reads the runs one by one. Only the last task may be written incompletely: it was appended at the end
+       of the file, so its run reaches past the end, or the file was extended with zeros before it was written.
+       Such a task is ignored, but a broken run anywhere else is an error, as the tasks after it would be lost
+     */
+    private static void read(Path path, RunConsumer consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            readHeader(in);
+            final long size = Files.size(path);
+            final long slotsInFile = size / SLOT_SIZE;
+            for (int slot = 1; slot < slotsInFile; ) {
+                final int kind = in.readUnsignedByte();
+                final boolean done = in.readBoolean();
+                final int slots = in.readUnsignedShort();
+                if (kind != TASK && kind != FREE) {
+                    throw new IOException("broken run in slot " + slot);
+                }
+                final boolean torn = (slots == 0 ? kind == FREE && !done && isZero(in, size - (long) slot * SLOT_SIZE - 4)
+                        : kind == TASK && slot + slots > slotsInFile);
+                if (torn) {
+                    System.out.println("Warning: the last task in " + path + " was not written completely, it is ignored");
+                    return;
+                }
+                if (slots == 0 || slot + slots > slotsInFile) {
+                    throw new IOException("broken run in slot " + slot);
+                }
+                long left = slots * SLOT_SIZE - 4;
+                if (kind == TASK) {
+                    final long stamp = in.readLong();
+                    Task task = new Task(in.readInt());
+                    task.setDone(done);
+                    task.setDeadlineMillis(in.readLong());
+                    final int titleLength = in.readInt();
+                    final int detailsLength = in.readInt();
+                    left -= RECORD_HEADER - 4 + Math.max(0L, titleLength) + Math.max(0L, detailsLength);
+                    if (left < 0) {
+                        throw new IOException("broken task in slot " + slot);
+                    }
+                    task.setTitle(readString(in, titleLength));
+                    task.setDetails(readString(in, detailsLength));
+                    consumer.accept(new Record(task, stamp, slot, slots));
+                } else {
+                    consumer.free(slot, slots);
+                }
+                in.skipNBytes(left);
+                slot += slots;
+            }
+        } catch (EOFException e) {
+            throw new IOException("unexpected end of file");
+        }
+    }
+
+    /* Reads the rest of the file */
+    private static boolean isZero(DataInputStream in, long bytes) throws IOException {
+        for (long i = 0; i < bytes; i++) {
+            if (in.readByte() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readHeader(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("not a slots file");
+        }
+        final int version = in.readInt();
+        if (version > VERSION) {
+            throw new IOException("unsupported version " + version);
+        }
+        in.skipNBytes(SLOT_SIZE - MAGIC.length - Integer.BYTES);
+    }
+
+    private static String readString(DataInputStream in, int length) throws IOException {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static boolean store(Iterable<Task> tasks, final String filename) {
+        try {
+            write(tasks, filename);
+            System.out.println("Changes were saved successfully");
+            return true;
+        } catch (IOException e) {
+            System.out.println("Couldn't save changes to disk: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /* Writes the tasks one after another, without free runs */
+    static void write(Iterable<Task> tasks, final String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            SlotFile file = new SlotFile(channel);
+            ByteBuffer out = ByteBuffer.allocate(1 << 16);
+            out.put(MAGIC).putInt(VERSION).position(SLOT_SIZE);
+            for (Task task : tasks) {
+                ByteBuffer record = file.encode(task);
+                if (record.remaining() > out.remaining()) {
+                    out.flip();
+                    writeFully(channel, out, -1);
+                    out.clear();
+                }
+                if (record.remaining() > out.capacity()) {
+                    writeFully(channel, record, -1);
+                } else {
+                    out.put(record);
+                }
+            }
+            out.flip();
+            writeFully(channel, out, -1);
+        }
+    }
+
+    /* Checks the magic bytes at the beginning of the file */
+    public static boolean isSlotFile(final String filename) {
+        byte[] magic = new byte[MAGIC.length];
+        try (InputStream in = Files.newInputStream(Paths.get(filename))) {
+            return in.readNBytes(magic, 0, magic.length) == magic.length && Arrays.equals(magic, MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /* Opens the file for the changes in place. An empty or missing file is started anew */
+    public static SlotFile open(final String filename) throws IOException {
+        Path path = Paths.get(filename);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        SlotFile file = new SlotFile(channel);
+        try {
+            if (channel.size() < SLOT_SIZE) {
+                file.writeHeader();
+                file.end = 1;
+                return file;
+            }
+            List<Record> stale = new ArrayList<>();
+            read(path, new RunConsumer() {
+                @Override
+                public void accept(Record record) throws IOException {
+                    final int id = record.task.getId();
+                    if (id <= 0) {
+                        throw new IOException("task id " + id + " is not positive");
+                    }
+                    if (file.runs.first(id) != 0) {
+                        /* the task was moved, but the program was stopped before its old run was freed */
+                        stale.add(record);
+                    } else {
+                        file.runs.put(id, record.slot, record.slots);
+                    }
+                    file.stamp = Math.max(file.stamp, record.stamp);
+                    file.end = record.slot + record.slots;
+                }
+
+                @Override
+                public void free(int slot, int slots) {
+                    file.release(slot, slots);
+                    file.end = slot + slots;
+                }
+            });
+            file.end = Math.max(file.end, 1);
+            for (Record record : stale) {
+                file.resolve(record);
+            }
+            return file;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /* Keeps the copy of the task with the greater stamp and frees the other one */
+    private void resolve(Record copy) throws IOException {
+        final int id = copy.task.getId();
+        int slot = copy.slot;
+        int slots = copy.slots;
+        if (stampAt(runs.first(id)) < copy.stamp) {
+            slot = runs.first(id);
+            slots = runs.length(id);
+            runs.put(id, copy.slot, copy.slots);
+        }
+        writeKind(slot, FREE);
+        release(slot, slots);
+    }
+
+    private long stampAt(int slot) throws IOException {
+        ByteBuffer stampBytes = ByteBuffer.allocate(Long.BYTES);
+        readFully(stampBytes, (long) slot * SLOT_SIZE + 4);
+        return stampBytes.flip().getLong();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SLOT_SIZE).put(MAGIC).putInt(VERSION);
+        header.clear();
+        writeFully(channel, header, 0);
+        written += SLOT_SIZE;
+    }
+
+    /* Bytes written since the file was opened */
+    public long written() {
+        return written;
+    }
+
+    /* Puts the task into its run, if it fits there, or moves it */
+    @Override
+    public void added(Task task) {
+        try {
+            put(task);
+        } catch (IOException e) {
+            System.out.println("Couldn't save changes to disk: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void removed(int id) {
+        final int slot = runs.first(id);
+        if (slot == 0) {
+            return;
+        }
+        try {
+            writeKind(slot, FREE);
+            release(slot, runs.length(id));
+            runs.remove(id);
+        } catch (IOException e) {
+            System.out.println("Couldn't save changes to disk: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void done(int id) {
+        final int slot = runs.first(id);
+        if (slot == 0) {
+            return;
+        }
+        flag.clear();
+        flag.put(0, (byte) 1);
+        try {
+            writeFully(channel, flag, (long) slot * SLOT_SIZE + DONE_OFFSET);
+            written++;
+        } catch (IOException e) {
+            System.out.println("Couldn't save changes to disk: " + e.getMessage());
+        }
+    }
+
+    private void put(Task task) throws IOException {
+        final int id = task.getId();
+        if (id <= 0) {
+            throw new IOException("task id " + id + " is not positive");
+        }
+        ByteBuffer record = encode(task);
+        final int slots = record.remaining() / SLOT_SIZE;
+        final int old = runs.first(id);
+        final int oldSlots = runs.length(id);
+        if (old != 0 && slots <= oldSlots) {
+            write(record, old, oldSlots);
+            runs.put(id, old, slots);
+            return;
+        }
+        final int slot = allocate(slots);
+        write(record, slot, slots);
+        runs.put(id, slot, slots);
+        if (old != 0) {
+            writeKind(old, FREE);
+            release(old, oldSlots);
+        }
+    }
+
+    /* Writes the record at the start of the run; the rest of the run, if any, is written as a free run.
+       The free run goes first, as in allocate(): until the record is written, the old one still covers the rest
+       of the run, so a crash in between never leaves the slots after the record without a header
+     */
+    private void write(ByteBuffer record, int slot, int runSlots) throws IOException {
+        final int slots = record.remaining() / SLOT_SIZE;
+        if (runSlots > slots) {
+            writeFreeRun(slot + slots, runSlots - slots);
+        }
+        writeFully(channel, record, (long) slot * SLOT_SIZE);
+        written += (long) slots * SLOT_SIZE;
+        if (runSlots > slots) {
+            release(slot + slots, runSlots - slots);
+        }
+    }
+
+    /* Takes the shortest free run which is long enough, or the slots at the end of the file */
+    private int allocate(int slots) throws IOException {
+        Map.Entry<Integer, ArrayDeque<Integer>> run = free.ceilingEntry(slots);
+        if (run == null) {
+            final int slot = end;
+            end += slots;
+            return slot;
+        }
+        final int slot = run.getValue().poll();
+        if (run.getValue().isEmpty()) {
+            free.remove(run.getKey());
+        }
+        if (run.getKey() > slots) {
+            /* the record is written later, so the rest of the run must be marked free already */
+            writeFreeRun(slot + slots, run.getKey() - slots);
+            release(slot + slots, run.getKey() - slots);
+        }
+        return slot;
+    }
+
+    private void release(int slot, int slots) {
+        free.computeIfAbsent(slots, key -> new ArrayDeque<>()).add(slot);
+    }
+
+    private void writeFreeRun(int slot, int slots) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(4).put(FREE).put((byte) 0).putChar((char) slots);
+        header.flip();
+        writeFully(channel, header, (long) slot * SLOT_SIZE);
+        written += header.capacity();
+    }
+
+    private void writeKind(int slot, byte kind) throws IOException {
+        flag.clear();
+        flag.put(0, kind);
+        writeFully(channel, flag, (long) slot * SLOT_SIZE);
+        written++;
+    }
+
+    /* Returns the record padded to whole slots, in a buffer which is reused by the next call */
+    private ByteBuffer encode(Task task) throws IOException {
+        byte[] title = (task.getTitle() != null ? task.getTitle().getBytes(StandardCharsets.UTF_8) : null);
+        byte[] details = (task.getDetails() != null ? task.getDetails().getBytes(StandardCharsets.UTF_8) : null);
+        final int size = RECORD_HEADER + (title != null ? title.length : 0) + (details != null ? details.length : 0);
+        final int slots = (size + SLOT_SIZE - 1) / SLOT_SIZE;
+        if (slots > MAX_SLOTS) {
+            throw new IOException("task " + task.getId() + " is too large");
+        }
+        if (buffer.capacity() < slots * SLOT_SIZE) {
+            buffer = ByteBuffer.allocate(slots * SLOT_SIZE);
+        }
+        buffer.clear();
+        buffer.put(TASK)
+                .put((byte) (task.isDone() ? 1 : 0))
+                .putChar((char) slots)
+                .putLong(++stamp)
+                .putInt(task.getId())
+                .putLong(task.getDeadlineMillis())
+                .putInt(title != null ? title.length : -1)
+                .putInt(details != null ? details.length : -1);
+        if (title != null) {
+            buffer.put(title);
+        }
+        if (details != null) {
+            buffer.put(details);
+        }
+        Arrays.fill(buffer.array(), buffer.position(), slots * SLOT_SIZE, (byte) 0);
+        buffer.position(0).limit(slots * SLOT_SIZE);
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            if (position < 0) {
+                channel.write(bytes);
+            } else {
+                position += channel.write(bytes, position);
+            }
+        }
+    }
+
+    private void readFully(ByteBuffer bytes, long position) throws IOException {
+        while (bytes.hasRemaining()) {
+            final int read = channel.read(bytes, position);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            position += read;
+        }
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Couldn't close slots file: " + e.getMessage());
+        }
+    }
+}
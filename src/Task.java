@@ -1,22 +1,37 @@
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import com.google.gson.annotations.JsonAdapter;
 
-public class Task {
+import java.io.IOException;
+
+public class Task implements TaskEntry {
     private int id;
     private String title, details;
     private boolean done = false;
-    private Date deadline;
+    @JsonAdapter(Deadlines.JsonAdapter.class)
+    private long deadline = NO_DEADLINE;
+    /* the rendered deadline, lists show the same tasks over and over */
+    private transient String deadlineText;
 
     private static final int TITLE_MAX_SIZE = 20;
     private static final int DETAILS_MAX_SIZE = 200;
-    private static final String DATE_FORMAT = "dd/MM/yyyy";
     private static final String NEWLINE = System.lineSeparator();
 
+    /* For Gson, so that the fields missing in the file keep their defaults */
+    private Task() {
+    }
+
     public Task(int id) {
         this.id = id;
     }
 
+    public Task(Task task) {
+        this.id = task.id;
+        this.title = task.title;
+        this.details = task.details;
+        this.done = task.done;
+        this.deadline = task.deadline;
+        this.deadlineText = task.deadlineText;
+    }
+
     public Task(int id, String title, String details, String deadline) throws TaskException {
         this.id = id;
         if (title == null || title.isEmpty()) {
@@ -27,11 +42,7 @@ public class Task {
         this.details = details;
 
         if (deadline != null) {
-            try {
-                this.deadline = new SimpleDateFormat(DATE_FORMAT).parse(deadline);
-            } catch (ParseException e) {
-                throw new TaskException("Illegal date format");
-            }
+            this.deadline = Deadlines.parse(deadline);
         }
         if (this.title.length() > TITLE_MAX_SIZE) {
             throw new TaskException("Title size cannot exceed " + TITLE_MAX_SIZE);
@@ -75,47 +86,71 @@ public class Task {
     }
 
     public String getDeadline() {
-        if (deadline == null) {
+        if (deadline == NO_DEADLINE) {
             return "no";
-        } else {
-            return deadline.toString();
         }
+        if (deadlineText == null) {
+            deadlineText = Deadlines.format(deadline);
+        }
+        return deadlineText;
+    }
+
+    @Override
+    public long getDeadlineMillis() {
+        return deadline;
     }
 
-    public void setDeadline(Date deadline) {
+    public void setDeadlineMillis(long deadline) {
         this.deadline = deadline;
+        this.deadlineText = null;
     }
 
-    public boolean isExpired() {
-        return deadline != null && new Date().after(deadline);
+    @Override
+    public Task toTask() {
+        return this;
     }
 
     public String display() {
-        StringBuilder sb = new StringBuilder("############")
+        StringBuilder sb = new StringBuilder();
+        try {
+            display(sb, System.currentTimeMillis());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    public void display(Appendable out) throws IOException {
+        display(out, System.currentTimeMillis());
+    }
+
+    /* Writes the task straight into the output, so that long lists are printed without building them in memory.
+       A list passes the same now to all of its tasks
+     */
+    public void display(Appendable out, long now) throws IOException {
+        out.append("############")
                 .append(NEWLINE)
                 .append("Task ")
-                .append(getId());
+                .append(Integer.toString(getId()));
         if (isDone()) {
-            sb.append(" (done)");
+            out.append(" (done)");
         } else {
-            if (isExpired()) {
-                sb.append(" (expired)");
+            if (isExpired(now)) {
+                out.append(" (expired)");
             }
         }
-        sb.append(NEWLINE)
+        out.append(NEWLINE)
                 .append("\"")
                 .append(getTitle())
                 .append("\"")
                 .append(NEWLINE);
         if (getDetails() != null && !getDetails().isEmpty()) {
-            sb.append(getDetails())
+            out.append(getDetails())
                     .append(NEWLINE);
         }
 
-        sb.append("Deadline: ")
+        out.append("Deadline: ")
                 .append(getDeadline())
                 .append(NEWLINE);
-
-        return sb.toString();
     }
 }
@@ -0,0 +1,42 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/* Walks the result of a TaskQuery page by page.
+   The cursor remembers the last task it returned, so a removed or changed task does not shift the next pages.
+   Every page is taken from the latest version of the list
+ */
+public class TaskCursor {
+    private final Supplier<TaskStore> tasks;
+    private final TaskQuery query;
+    private TaskEntry last = null;
+    private boolean exhausted = false;
+
+    TaskCursor(Supplier<TaskStore> tasks, TaskQuery query) {
+        this.tasks = tasks;
+        this.query = query;
+    }
+
+    public boolean hasNext() {
+        return !exhausted;
+    }
+
+    /* Returns up to limit next tasks, an empty list means the end of the result */
+    public List<Task> next(int limit) {
+        List<Task> page = new ArrayList<>();
+        if (exhausted) {
+            return page;
+        }
+        for (TaskEntry entry : query.page(tasks.get(), last, limit)) {
+            page.add(entry.toTask());
+        }
+        if (page.size() < limit) {
+            exhausted = true;
+        }
+        if (!page.isEmpty()) {
+            /* a copy, so that the position does not move if the task is changed later */
+            last = new Task(page.get(page.size() - 1));
+        }
+        return page;
+    }
+}
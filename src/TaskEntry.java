@@ -0,0 +1,25 @@
+/* A task as it is kept in the TaskStore: either a Task itself or a record which is decoded into a Task only on demand.
+   The flags are available without decoding, so the filters don't need the whole task
+ */
+public interface TaskEntry {
+    long NO_DEADLINE = Long.MIN_VALUE;
+
+    int getId();
+
+    boolean isDone();
+
+    /* Epoch millis of the deadline or NO_DEADLINE */
+    long getDeadlineMillis();
+
+    /* A deadline passes a millisecond after its time */
+    default boolean isExpired(long now) {
+        final long deadline = getDeadlineMillis();
+        return deadline != NO_DEADLINE && now > deadline;
+    }
+
+    default boolean isExpired() {
+        return isExpired(System.currentTimeMillis());
+    }
+
+    Task toTask();
+}
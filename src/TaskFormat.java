@@ -0,0 +1,101 @@
+/* File formats of the tasks lists.
+   A format to write is chosen by the file extension, a format to read is recognized by the magic bytes,
+   so a renamed file is still read correctly. The JSON without whitespace (.min.json) is read as any other JSON,
+   so it is never detected
+ */
+public enum TaskFormat {
+    JSON {
+        @Override
+        public LoadResult load(final String filename, final int limit) {
+            return JsonUtills.load(filename, limit);
+        }
+
+        @Override
+        public boolean store(Iterable<Task> tasks, final String filename) {
+            return JsonUtills.store(tasks, filename);
+        }
+    },
+    COMPACT_JSON {
+        @Override
+        public LoadResult load(final String filename, final int limit) {
+            return JsonUtills.load(filename, limit);
+        }
+
+        @Override
+        public boolean store(Iterable<Task> tasks, final String filename) {
+            return JsonUtills.store(tasks, filename, false, false);
+        }
+    },
+    GZIP {
+        @Override
+        public LoadResult load(final String filename, final int limit) {
+            return JsonUtills.load(filename, limit);
+        }
+
+        @Override
+        public boolean store(Iterable<Task> tasks, final String filename) {
+            return JsonUtills.store(tasks, filename, false, true);
+        }
+    },
+    BINARY {
+        @Override
+        public LoadResult load(final String filename, final int limit) {
+            return BinaryUtills.load(filename, limit);
+        }
+
+        @Override
+        public boolean store(Iterable<Task> tasks, final String filename) {
+            return BinaryUtills.store(tasks, filename);
+        }
+    },
+    SLOTS {
+        @Override
+        public LoadResult load(final String filename, final int limit) {
+            return SlotFile.load(filename, limit);
+        }
+
+        @Override
+        public boolean store(Iterable<Task> tasks, final String filename) {
+            return SlotFile.store(tasks, filename);
+        }
+    };
+
+    public abstract LoadResult load(final String filename, final int limit);
+
+    public abstract boolean store(Iterable<Task> tasks, final String filename);
+
+    public static final String COMPACT_JSON_EXTENSION = ".min.json";
+    public static final String GZIP_EXTENSION = ".gz";
+
+    public static TaskFormat of(final String filename) {
+        if (filename.endsWith(BinaryUtills.EXTENSION)) {
+            return BINARY;
+        }
+        if (filename.endsWith(SlotFile.EXTENSION)) {
+            return SLOTS;
+        }
+        if (filename.endsWith(GZIP_EXTENSION)) {
+            return GZIP;
+        }
+        return filename.endsWith(COMPACT_JSON_EXTENSION) ? COMPACT_JSON : JSON;
+    }
+
+    public static TaskFormat detect(final String filename) {
+        if (BinaryUtills.isBinary(filename)) {
+            return BINARY;
+        }
+        if (SlotFile.isSlotFile(filename)) {
+            return SLOTS;
+        }
+        return JsonUtills.isGzip(filename) ? GZIP : JSON;
+    }
+
+    /* Loads all the tasks from one file and stores them to another one in the format of its extension */
+    public static boolean convert(final String from, final String to) {
+        LoadResult loaded = detect(from).load(from, Integer.MAX_VALUE);
+        if (loaded.getTasks().isEmpty()) {
+            return false;
+        }
+        return of(to).store(loaded.getTasks(), to);
+    }
+}
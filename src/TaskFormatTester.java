@@ -0,0 +1,251 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class TaskFormatTester {
+    private static final String JSON_FILE = "format-test.json";
+    private static final String BINARY_FILE = "format-test" + BinaryUtills.EXTENSION;
+    private static final String SLOTS_FILE = "format-test" + SlotFile.EXTENSION;
+    private static final String COMPACT_FILE = "format-test" + TaskFormat.COMPACT_JSON_EXTENSION;
+    private static final String GZIP_FILE = JSON_FILE + TaskFormat.GZIP_EXTENSION;
+    private static final String TOKENS = "0123456789abcdefghijklmnopqrstuvwxyz \u0430\u0431\u0432\u0433\u0434\u0435\u0436\u0437\u044f \u2713";
+    private static Random rnd = new Random();
+
+    private String randomString(int len) {
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++) {
+            sb.append(TOKENS.charAt(rnd.nextInt(TOKENS.length())));
+        }
+        return sb.toString();
+    }
+
+    private List<Task> generateTasks(int number) {
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < number; i++) {
+            try {
+                Task task = new Task(rnd.nextInt(Integer.MAX_VALUE), randomString(1 + rnd.nextInt(20)),
+                        rnd.nextBoolean() ? null : randomString(rnd.nextInt(201)),
+                        rnd.nextBoolean() ? null : (1 + rnd.nextInt(28)) + "/" + (1 + rnd.nextInt(12)) + "/" + (1900 + rnd.nextInt(200)));
+                task.setDone(rnd.nextBoolean());
+                tasks.add(task);
+            } catch (TaskException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return tasks;
+    }
+
+    private String display(List<Task> tasks) {
+        StringBuilder sb = new StringBuilder();
+        tasks.forEach(task -> sb.append(task.display()));
+        return sb.toString();
+    }
+
+    @Test
+    public void roundTripTest() {
+        int testNumber = 20;
+        while (testNumber-- > 0) {
+            List<Task> tasks = generateTasks(rnd.nextInt(1000));
+            Assert.assertTrue(TaskFormat.of(BINARY_FILE).store(tasks, BINARY_FILE));
+            Assert.assertEquals(TaskFormat.BINARY, TaskFormat.detect(BINARY_FILE));
+
+            LoadResult loaded = TaskFormat.detect(BINARY_FILE).load(BINARY_FILE, Integer.MAX_VALUE);
+            Assert.assertEquals(0, loaded.getSkipped());
+            Assert.assertEquals(display(tasks), display(loaded.getTasks()));
+        }
+    }
+
+    @Test
+    public void limitTest() {
+        List<Task> tasks = generateTasks(100);
+        BinaryUtills.store(tasks, BINARY_FILE);
+
+        LoadResult loaded = BinaryUtills.load(BINARY_FILE, 30);
+        Assert.assertEquals(70, loaded.getSkipped());
+        Assert.assertEquals(display(tasks.subList(0, 30)), display(loaded.getTasks()));
+    }
+
+    @Test
+    public void mappedTest() throws IOException {
+        List<Task> tasks = generateTasks(1000);
+        BinaryUtills.store(tasks, BINARY_FILE);
+
+        MappedTaskFile mapped = MappedTaskFile.open(BINARY_FILE);
+        Assert.assertNotNull(mapped);
+        Assert.assertEquals(tasks.size(), mapped.size());
+        List<Task> decoded = new ArrayList<>();
+        for (int row = 0; row < mapped.size(); row++) {
+            TaskEntry entry = mapped.row(row, tasks.get(row).getId());
+            Assert.assertEquals(tasks.get(row).isDone(), entry.isDone());
+            Assert.assertEquals(tasks.get(row).isExpired(), entry.isExpired());
+            decoded.add(entry.toTask());
+        }
+        Assert.assertEquals(display(tasks), display(decoded));
+    }
+
+    /* A file whose index points outside of it is not mapped, but read as a whole */
+    @Test
+    public void brokenIndexTest() throws IOException {
+        List<Task> tasks = generateTasks(100);
+        BinaryUtills.store(tasks, BINARY_FILE);
+        try (RandomAccessFile file = new RandomAccessFile(BINARY_FILE, "rw")) {
+            file.seek(BinaryUtills.HEADER_POSITION + 2 * Integer.BYTES);
+            file.writeLong(file.length());
+        }
+        Assert.assertNull(MappedTaskFile.open(BINARY_FILE));
+        Assert.assertEquals(display(tasks), display(BinaryUtills.load(BINARY_FILE, Integer.MAX_VALUE).getTasks()));
+
+        BinaryUtills.store(tasks, BINARY_FILE);
+        try (RandomAccessFile file = new RandomAccessFile(BINARY_FILE, "rw")) {
+            file.setLength(file.length() - 1);
+        }
+        Assert.assertNull(MappedTaskFile.open(BINARY_FILE));
+    }
+
+    @Test
+    public void compactTest() {
+        List<Task> tasks = generateTasks(1000);
+        for (Task task : tasks) {
+            task.setTitle("title " + rnd.nextInt(10));
+        }
+        CompactTasks packed = CompactTasks.pack(tasks);
+        Assert.assertEquals(tasks.size(), packed.size());
+        List<Task> decoded = new ArrayList<>();
+        Map<String, Task> first = new HashMap<>();
+        for (int row = 0; row < packed.size(); row++) {
+            TaskEntry entry = packed.row(row);
+            Assert.assertEquals(tasks.get(row).getId(), entry.getId());
+            Assert.assertEquals(tasks.get(row).isDone(), entry.isDone());
+            Assert.assertEquals(tasks.get(row).getDeadlineMillis(), entry.getDeadlineMillis());
+            Task task = entry.toTask();
+            /* equal titles are the same string */
+            Assert.assertSame(first.computeIfAbsent(task.getTitle(), title -> task).getTitle(), task.getTitle());
+            decoded.add(task);
+        }
+        Assert.assertEquals(display(tasks), display(decoded));
+    }
+
+    /* The tasks are changed in place, then the file is opened and read anew; the ids may be as sparse as
+       the ones kept from a file
+     */
+    @Test
+    public void slotsTest() throws IOException {
+        int testNumber = 20;
+        while (testNumber-- > 0) {
+            final int size = 1 + rnd.nextInt(500);
+            final boolean sparse = rnd.nextBoolean();
+            TreeSet<Integer> pool = new TreeSet<>();
+            while (pool.size() < size * 2) {
+                pool.add(sparse ? 1 + rnd.nextInt(Integer.MAX_VALUE) : pool.size() + 1);
+            }
+            List<Integer> ids = new ArrayList<>(pool);
+            Map<Integer, Task> expected = new TreeMap<>();
+            List<Task> tasks = generateTasks(size);
+            for (int i = 0; i < size; i++) {
+                tasks.get(i).setId(ids.get(i));
+                expected.put(ids.get(i), tasks.get(i));
+            }
+            Assert.assertTrue(TaskFormat.of(SLOTS_FILE).store(tasks, SLOTS_FILE));
+            Assert.assertEquals(TaskFormat.SLOTS, TaskFormat.detect(SLOTS_FILE));
+
+            SlotFile slots = SlotFile.open(SLOTS_FILE);
+            List<Task> changes = generateTasks(size);
+            for (Task change : changes) {
+                final int id = ids.get(rnd.nextInt(size * 2));
+                switch (rnd.nextInt(3)) {
+                    case 0:
+                        change.setId(id);
+                        slots.added(change);
+                        expected.put(id, change);
+                        break;
+                    case 1:
+                        slots.removed(id);
+                        expected.remove(id);
+                        break;
+                    default:
+                        slots.done(id);
+                        if (expected.containsKey(id)) {
+                            expected.get(id).setDone(true);
+                        }
+                        break;
+                }
+            }
+            slots.close();
+            SlotFile.open(SLOTS_FILE).close();
+
+            LoadResult loaded = TaskFormat.detect(SLOTS_FILE).load(SLOTS_FILE, Integer.MAX_VALUE);
+            Assert.assertEquals(display(new ArrayList<>(expected.values())), display(loaded.getTasks()));
+        }
+    }
+
+    /* A task cut off at the end is ignored, but a broken run before other tasks fails the whole file */
+    @Test
+    public void brokenSlotsTest() throws IOException {
+        List<Task> tasks = generateTasks(100);
+        for (int i = 0; i < tasks.size(); i++) {
+            tasks.get(i).setId(i + 1);
+        }
+        Assert.assertTrue(TaskFormat.of(SLOTS_FILE).store(tasks, SLOTS_FILE));
+        final long size = new File(SLOTS_FILE).length();
+        try (RandomAccessFile file = new RandomAccessFile(SLOTS_FILE, "rw")) {
+            file.setLength(size - 1);
+        }
+        SlotFile.open(SLOTS_FILE).close();
+        Assert.assertEquals(display(tasks.subList(0, tasks.size() - 1)),
+                display(TaskFormat.SLOTS.load(SLOTS_FILE, Integer.MAX_VALUE).getTasks()));
+
+        /* the file was extended, but the task was not written yet */
+        Assert.assertTrue(TaskFormat.of(SLOTS_FILE).store(tasks, SLOTS_FILE));
+        try (RandomAccessFile file = new RandomAccessFile(SLOTS_FILE, "rw")) {
+            file.setLength(size + 3 * SlotFile.SLOT_SIZE);
+        }
+        SlotFile.open(SLOTS_FILE).close();
+        Assert.assertEquals(display(tasks), display(TaskFormat.SLOTS.load(SLOTS_FILE, Integer.MAX_VALUE).getTasks()));
+
+        /* the length of the run of the second task is lost */
+        Assert.assertTrue(TaskFormat.of(SLOTS_FILE).store(tasks, SLOTS_FILE));
+        try (RandomAccessFile file = new RandomAccessFile(SLOTS_FILE, "rw")) {
+            file.seek(SlotFile.SLOT_SIZE);
+            final int slots = file.readInt() & 0xffff;
+            file.seek((long) (1 + slots) * SlotFile.SLOT_SIZE + 2);
+            file.writeShort(0);
+        }
+        try {
+            SlotFile.open(SLOTS_FILE).close();
+            Assert.fail("broken run is not reported");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().startsWith("broken run"));
+        }
+        Assert.assertTrue(TaskFormat.SLOTS.load(SLOTS_FILE, Integer.MAX_VALUE).getTasks().isEmpty());
+    }
+
+    @Test
+    public void convertTest() {
+        List<Task> tasks = generateTasks(500);
+        JsonUtills.store(tasks, JSON_FILE);
+
+        Assert.assertTrue(TaskFormat.convert(JSON_FILE, BINARY_FILE));
+        Assert.assertTrue(TaskFormat.convert(BINARY_FILE, JSON_FILE));
+        Assert.assertEquals(TaskFormat.JSON, TaskFormat.detect(JSON_FILE));
+        Assert.assertEquals(display(tasks), display(JsonUtills.load(JSON_FILE)));
+
+        Assert.assertTrue(TaskFormat.convert(JSON_FILE, GZIP_FILE));
+        Assert.assertTrue(TaskFormat.convert(GZIP_FILE, COMPACT_FILE));
+        Assert.assertEquals(TaskFormat.GZIP, TaskFormat.detect(GZIP_FILE));
+        Assert.assertEquals(TaskFormat.JSON, TaskFormat.detect(COMPACT_FILE));
+        Assert.assertTrue(new File(GZIP_FILE).length() < new File(COMPACT_FILE).length());
+        Assert.assertTrue(new File(COMPACT_FILE).length() < new File(JSON_FILE).length());
+        Assert.assertEquals(display(tasks), display(JsonUtills.load(GZIP_FILE)));
+        Assert.assertEquals(display(tasks), display(TaskFormat.detect(COMPACT_FILE).load(COMPACT_FILE, Integer.MAX_VALUE).getTasks()));
+    }
+}
@@ -1,236 +1,1227 @@
+import javax.management.JMException;
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
-public class TaskManager {
-    private List<Task> tasks = new ArrayList<>();
-    private final Set<Integer> toRemove = new HashSet<>();
-    private final Set<Integer> wasDone = new HashSet<>();
+/* The manager may be shared by many threads. The changes are applied one at a time under the lock
+   of the manager, as they must reach the journal in the same order as the store. After every change
+   an O(1) snapshot of the store is published, and the lists are read from it without locking,
+   so a list is always consistent and never holds up the changes.
+   A manager keeps the whole list, or one shard of it for ShardedTaskManager
+ */
+public class TaskManager implements RequestProcessor {
+    private final TaskStore tasks = new TaskStore();
+    private volatile TaskStore published = tasks.snapshot();
+    private final IdAllocator ids;
+    private final Persister persister;
+    private final DeadlineScheduler deadlines;
+    /* the snapshot of the list, the journal is next to it */
+    private final String filename;
+    private boolean snapshotStale = false;
+    /* read by the metrics without the lock */
+    private volatile int modifications = 0;
+    /* built on the first search, then changed together with the list */
+    private SearchIndex index = null;
+    /* set while a batch or a transaction is executed: its changes are neither published nor logged until it ends */
+    private boolean batching = false;
+    /* the version of the list before the transaction, or null */
+    private TaskStore transaction = null;
+    /* the client which began the transaction, the others don't change the list until it ends */
+    private Object transactionClient = null;
+    /* set while the changes of one request are applied, so that they are undone together */
+    private boolean grouped = false;
+    /* the versions of the list before the last changes and before the last undone ones, the latest first */
+    private final Deque<TaskStore> undo = new ArrayDeque<>();
+    private final Deque<TaskStore> redo = new ArrayDeque<>();
+    private final Config config;
+    /* the tasks of the list which are kept as Task objects rather than rows of the columns or of the segments */
+    private int heapTasks = 0;
+    private final Metrics metrics;
 
     public static final String TODO_LIST_FILE = "todo-list.json";
-    public static final int MAX_TASKS_NUMBER = 100000;
-    private static final Set<String> ADD_REQUEST_OPTIONS = new HashSet<>(Arrays.asList("-t", "-dt", "-dl"));
-    private static final int UNSTORED_CHANGES_BUFFER_SIZE = 20;
-    private int modifications = 0;
+    public static final String JOURNAL_SUFFIX = ".journal";
+    private static final int MIN_CHANGES_TO_COMPACT = 1000;
+    /* the versions share all the unchanged nodes, so a step keeps only the paths to the tasks it changed */
+    private static final int UNDO_STEPS = 100;
+    /* keeps a segment well below the 2 GB which a file can be mapped at once */
+    private static final int SEGMENT_TASKS = 1 << 20;
+    private static final PrintStream NOWHERE = new PrintStream(OutputStream.nullOutputStream());
+    /* the requests are parsed with the buffers of their thread, so they are not allocated for every request */
+    private static final ThreadLocal<RequestTokenizer> WORDS = ThreadLocal.withInitial(RequestTokenizer::new);
+    private static final ThreadLocal<Parser> ADD_OPTIONS = ThreadLocal.withInitial(() -> new Parser("-t", "-dt", "-dl"));
+
+    /* The requests, told apart by their first word */
+    enum Command {
+        EXIT("exit"), BATCH("batch"), LOAD("load"), ADD("add"), CONVERT("convert"),
+        REMOVE("remove"), DONE("done"), LIST("list"), SEARCH("search"), STATS("stats"),
+        BEGIN("begin"), COMMIT("commit"), ROLLBACK("rollback"), UNDO("undo"), REDO("redo"), UNSUPPORTED(null);
+
+        private static final Command[] COMMANDS = values();
+        private final String keyword;
+
+        Command(String keyword) {
+            this.keyword = keyword;
+        }
+
+        /* The requests which read or write the files named by the client */
+        boolean usesFiles() {
+            return this == BATCH || this == LOAD || this == CONVERT;
+        }
+
+        boolean changesList() {
+            return this == ADD || this == REMOVE || this == DONE || this == LOAD || this == BATCH
+                    || this == BEGIN || this == COMMIT || this == ROLLBACK || this == UNDO || this == REDO;
+        }
+
+        /* The names of the metrics of the commands, by their ordinals */
+        static String[] names() {
+            String[] names = new String[COMMANDS.length];
+            for (Command command : COMMANDS) {
+                names[command.ordinal()] = command.name().toLowerCase();
+            }
+            return names;
+        }
+
+        /* Reads the first word of the request */
+        static Command of(RequestTokenizer words) {
+            if (words.next()) {
+                for (Command command : COMMANDS) {
+                    if (command.keyword != null && words.is(command.keyword)) {
+                        return command;
+                    }
+                }
+            }
+            return UNSUPPORTED;
+        }
+    }
 
     public TaskManager() {
-        load(TODO_LIST_FILE);
+        this(Config.load());
+    }
+
+    /* In the compact mode the tasks of the loaded files take about 30% less memory, see CompactTasks.
+       The tasks added later are kept as they are until the list is restored from its snapshot
+     */
+    public TaskManager(Config config) {
+        this(config, TODO_LIST_FILE, new IdAllocator());
+    }
+
+    /* A shard keeps its own file and gives out only the ids of its blocks */
+    TaskManager(Config config, final String filename, IdAllocator ids) {
+        this.config = config;
+        this.filename = filename;
+        this.ids = ids;
+        /* only the nearest deadlines are scheduled, the rest are found in the list, past the subtrees without them */
+        deadlines = new DeadlineScheduler(filename, action -> {
+            synchronized (this) {
+                tasks.forEachMatching(false, false, true, Long.MAX_VALUE, entry -> action.accept(entry.getId(), entry.getDeadlineMillis()));
+            }
+        });
+        metrics = new Metrics(Command.names(), () -> published, () -> modifications, this::backlog);
+        persister = new Persister(filename, metrics.snapshots, metrics.journal);
+        restore();
     }
 
-    List<Task> load(final String filename) {
-        List<Task> loaded = JsonUtills.load(filename);
+    /* Loads the last snapshot and replays the changes which were logged after it.
+       The snapshots are written with the ids of the tasks, and the journal refers to the tasks by these ids,
+       so the ids are kept. A list which is not ordered by id (the one written by hand, for example) gets
+       new ids, so it is rewritten before any change is logged against it
+     */
+    private void restore() {
+        ParsedFile snapshot = parse(filename, config.getCapacity(), System.out);
+        final boolean keepIds = snapshot.hasOrderedIds();
+        add(filename, snapshot, keepIds, System.out);
+
+        int replayed = persister.restore(new Journal.Listener() {
+            @Override
+            public void added(Task task) {
+                putEntry(task);
+                track(task);
+            }
+
+            @Override
+            public void removed(int id) {
+                removeEntry(id);
+                deadlines.cancel(id);
+            }
+
+            @Override
+            public void done(int id) {
+                Task task = tasks.get(id);
+                if (task != null) {
+                    Task done = new Task(task);
+                    done.setDone(true);
+                    putEntry(done);
+                    deadlines.cancel(id);
+                }
+            }
+        });
+
+        ids.advanceTo(tasks.lastId());
+        spill();
+        publish();
 
-        if (loaded.isEmpty()) {
-            System.out.println("Warning: " + filename + " does not contain tasks");
+        if (replayed > 0) {
+            System.out.println("Restored " + replayed + " changes from " + filename + JOURNAL_SUFFIX);
         }
-        int left = MAX_TASKS_NUMBER - tasks.size();
-        if (loaded.size() > left) {
-            while (loaded.size() > left) {
-                loaded.remove(loaded.size() - 1);
+        /* the list is moved into the slots or out of them with the next snapshot */
+        if (replayed > 0 || (!keepIds && !tasks.isEmpty()) || config.isSlots() != persister.isInPlace()) {
+            snapshotStale = true;
+            storeChanges(replayed > 0);
+        }
+    }
+
+    private void publish() {
+        if (!batching) {
+            published = tasks.snapshot();
+        }
+    }
+
+    /* Should be called under the lock after every change of the list */
+    private void changed() {
+        modifications++;
+        spill();
+        if (!batching) {
+            if (!grouped) {
+                remember(published);
             }
-            System.out.println("Warning: not all tasks were loaded as the maximum possible tasks number is " + MAX_TASKS_NUMBER);
+            publish();
+            storeChanges(false);
         }
+    }
 
-        for (Task task : loaded) {
-            task.setId(getAvailableId());
-            tasks.add(task);
+    /* Keeps the version of the list before a change, so that the change may be undone.
+       The changes of a batch or a transaction are remembered once, when it ends
+     */
+    private void remember(TaskStore version) {
+        if (!batching) {
+            undo.push(version);
+            if (undo.size() > UNDO_STEPS) {
+                undo.removeLast();
+            }
+            redo.clear();
         }
+    }
+
+    /* The loaded tasks are not logged one by one: instead, the whole list is rewritten on the next store */
+    int load(final String filename) {
+        return load(filename, System.out);
+    }
 
+    synchronized int load(final String filename, PrintStream out) {
+        return load(filename, parse(filename, config.getCapacity() - tasks.size(), out), out);
+    }
+
+    /* Adds the tasks which were read by the caller, ShardedTaskManager splits a file between the shards so */
+    synchronized int load(final String filename, LoadResult read, PrintStream out) {
+        return load(filename, new ParsedFile(null, read), out);
+    }
+
+    /* A file is added as a whole or not at all, so a record broken past the parsing doesn't leave a part of it */
+    private int load(final String filename, ParsedFile parsed, PrintStream out) {
+        final TaskStore before = published;
+        final TaskStore unchanged = tasks.snapshot();
+        int loaded;
+        try {
+            loaded = add(filename, parsed, false, out);
+        } catch (RuntimeException e) {
+            revert(unchanged, false);
+            publish();
+            out.println("Couldn't load tasks list from " + filename + ": " + e);
+            return 0;
+        }
+        if (loaded > 0) {
+            remember(before);
+            snapshotStale = true;
+        }
         return loaded;
     }
 
-    /* Alternative way to implement load from json. Using this one, we can avoid problems of very huge files, passed to enter
-       But it looks just ... ugly
+    /* The files are parsed in parallel, but their tasks are added in the order of the files,
+       so the ids are the same as if the files were loaded one by one
      */
+    void load(List<String> filenames) {
+        load(filenames, System.out);
+    }
 
-//    private List<Task> load(final String filename) {
-//        List<Task> loaded = new ArrayList<>();
-//        try (JsonReader reader = gson.newJsonReader(Files.newBufferedReader(Paths.get(filename)))) {
-//            Task task;
-//            reader.beginArray();
-//            while (loaded.size() + tasks.size() < MAX_TASKS_NUMBER && reader.hasNext()) {
-//                task = gson.fromJson(reader, Task.class);
-//                if (!taskExists(task.getId())) {
-//                    loaded.add(task);
-//                }
-//            }
-//
-//            if (gson.fromJson(reader, Task.class) != null) {
-//                System.out.println("Warning: not all tasks were loaded as the maximum possible tasks number is " + MAX_TASKS_NUMBER);
-//            }
-//            System.out.println("Loaded tasks from file " + filename + " successfully");
-//        } catch (IOException e) {
-//            System.out.println("Couldn't load tasks list: " + e.getMessage());
-//        } catch (IllegalStateException ignored) {
-//
-//        }
-//
-//        if (loaded.isEmpty()) {
-//            System.out.println("Warning: " + filename + " is empty");
-//        }
-//
-//        return loaded;
-//    }
-
-    private void pushChanges() {
-        tasks = tasks.stream()
-                .filter(task -> !toRemove.contains(task.getId()))
-                .collect(Collectors.toList());
-
-        for (Task task : tasks){
-            if (wasDone.contains(task.getId())) {
-                task.setDone(true);
-            }
-        }
-
-        toRemove.clear();
-        wasDone.clear();
-    }
-
-
-    /* I guess, this function could be delegated to another class, which might work asynchronously and store the changes time after time.
-       I would implement it, if I had little more time
+    void load(List<String> filenames, PrintStream out) {
+        if (filenames.size() < 2) {
+            filenames.forEach(filename -> load(filename, out));
+            return;
+        }
+
+        /* any of the files may fill the list on its own, so each one is parsed up to the free space */
+        final int left = config.getCapacity() - published.size();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(filenames.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<ParsedFile>> parsed = new ArrayList<>();
+            for (String filename : filenames) {
+                parsed.add(pool.submit(() -> parse(filename, left, out)));
+            }
+            /* a broken file is reported and skipped, the rest are still loaded */
+            for (int i = 0; i < filenames.size(); i++) {
+                try {
+                    ParsedFile file = parsed.get(i).get();
+                    synchronized (this) {
+                        load(filenames.get(i), file, out);
+                    }
+                } catch (ExecutionException e) {
+                    out.println("Couldn't load tasks list from " + filenames.get(i) + ": " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            out.println("Loading was interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /* A file which is read or mapped, but whose tasks are not added to the list yet */
+    private static class ParsedFile {
+        final MappedTaskFile mapped;
+        final LoadResult result;
+
+        ParsedFile(MappedTaskFile mapped, LoadResult result) {
+            this.mapped = mapped;
+            this.result = result;
+        }
+
+        int size() {
+            return (mapped != null ? mapped.size() : result.getTasks().size() + result.getSkipped());
+        }
+
+        int loaded() {
+            return (mapped != null ? mapped.size() : result.getTasks().size());
+        }
+
+        int id(int row) {
+            return (mapped != null ? mapped.id(row) : result.getTasks().get(row).getId());
+        }
+
+        boolean hasOrderedIds() {
+            int last = 0;
+            for (int row = 0; row < loaded(); row++) {
+                if (id(row) <= last) {
+                    return false;
+                }
+                last = id(row);
+            }
+            return true;
+        }
+    }
+
+    /* Does not touch the list, so the files may be parsed concurrently */
+    private ParsedFile parse(final String filename, final int limit, PrintStream out) {
+        final long start = System.nanoTime();
+        MappedTaskFile mapped = (TaskFormat.detect(filename) == TaskFormat.BINARY ? map(filename, out) : null);
+        ParsedFile parsed;
+        if (mapped != null) {
+            out.println("Mapped tasks from file " + filename + " successfully");
+            parsed = new ParsedFile(mapped, null);
+        } else {
+            parsed = new ParsedFile(null, TaskFormat.detect(filename).load(filename, limit));
+        }
+        long bytes;
+        try {
+            bytes = Files.size(Paths.get(filename));
+        } catch (IOException e) {
+            bytes = 0;
+        }
+        metrics.loads.record(System.nanoTime() - start, bytes);
+        return parsed;
+    }
+
+    /* Returns the number of added tasks. The tasks get new ids, unless keepIds is set.
+       Should be called under the lock
      */
+    private int add(final String filename, ParsedFile parsed, boolean keepIds, PrintStream out) {
+        final int loaded = Math.min(config.getCapacity() - tasks.size(), parsed.loaded());
+        final int skipped = parsed.size() - loaded;
+        List<Task> read = (parsed.mapped == null ? parsed.result.getTasks().subList(0, loaded) : null);
+        if (read != null && !keepIds) {
+            read.forEach(task -> task.setId(nextId()));
+        }
+        CompactTasks packed = (config.isCompact() && read != null ? CompactTasks.pack(read) : null);
+        for (int row = 0; row < loaded; row++) {
+            TaskEntry entry;
+            if (parsed.mapped != null) {
+                entry = parsed.mapped.row(row, keepIds ? parsed.id(row) : nextId());
+            } else if (packed != null) {
+                entry = packed.row(row);
+            } else {
+                entry = read.get(row);
+            }
+            /* the index decodes the task, so a broken record fails before it gets into the list */
+            if (index != null) {
+                index.add(entry);
+            }
+            putEntry(entry);
+            track(entry);
+        }
+        ids.advanceTo(tasks.lastId());
+        spill();
+        publish();
 
-     void storeChanges(boolean forced) {
-        if (forced || modifications > UNSTORED_CHANGES_BUFFER_SIZE) {
-            System.out.println("Saving latest changes to " + TODO_LIST_FILE + "...");
-            pushChanges();
-            JsonUtills.store(tasks, TODO_LIST_FILE);
+        if (loaded == 0 && skipped == 0) {
+            out.println("Warning: " + filename + " does not contain tasks");
+        }
+        if (skipped > 0) {
+            out.println("Warning: " + skipped + " tasks were not loaded as the maximum possible tasks number is " + config.getCapacity());
+        }
+        return loaded;
+    }
+
+    /* Binary files with an index are not read, but mapped: their tasks are decoded only when they are needed */
+    private static MappedTaskFile map(final String filename, PrintStream out) {
+        try {
+            MappedTaskFile mapped = MappedTaskFile.open(filename);
+            if (mapped != null) {
+                mapped.checkRecords();
+            }
+            return mapped;
+        } catch (IOException e) {
+            out.println("Couldn't map tasks list: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /* The changes themselves are written to the journal by the persister in the background.
+       The whole list is rewritten only when the journal becomes longer than the list itself, so the cost of
+       the rewrite is spread over as many changes as there are tasks.
+       In the slots mode there is no journal: the changed tasks are rewritten in the snapshot, so it is written
+       as a whole only when it misses the loaded tasks.
+       The forced store waits until the list is written
+     */
+    @Override
+    public synchronized void storeChanges(boolean forced) {
+        if (config.isSlots() ? snapshotStale : forced || snapshotStale || modifications > Math.max(MIN_CHANGES_TO_COMPACT, tasks.size())) {
+            System.out.println("Saving latest changes to " + filename + "...");
+            /* a list which doesn't fit into the memory is written in the binary format, so it is mapped on restore */
+            persister.snapshot(published, config.isSlots() ? TaskFormat.SLOTS
+                    : published.size() > config.getHeapTasks() ? TaskFormat.BINARY : config.getJsonFormat());
+            snapshotStale = false;
             modifications = 0;
         }
+        if (forced) {
+            persister.drain();
+            if (config.isSlots()) {
+                modifications = 0;
+            }
+        }
+    }
+
+    /* Queues the tasks which differ between the versions, as they are in the second one; returns their number */
+    private int persist(TaskStore from, TaskStore to) {
+        final int[] changed = {0};
+        to.diff(from, (entry, old) -> {
+            if (!same(entry, old)) {
+                changed[0]++;
+                if (entry == null) {
+                    persister.removed(old.getId());
+                } else if (old == null) {
+                    persister.added(entry.toTask());
+                } else {
+                    persister.replaced(entry.toTask());
+                }
+            }
+        });
+        return changed[0];
     }
 
-    private void save(Task task) {
-        if (tasks.size() == MAX_TASKS_NUMBER) {
-            System.out.println("The task is not saved as the maximum possible tasks number is " + MAX_TASKS_NUMBER);
+    /* A spilled task is replaced with its row, but it is not changed */
+    private static boolean same(TaskEntry entry, TaskEntry other) {
+        if (entry == null || other == null || entry.isDone() != other.isDone()
+                || entry.getDeadlineMillis() != other.getDeadlineMillis()) {
+            return entry == other;
         }
-        tasks.add(task);
-        modifications++;
-        storeChanges(false);
-        System.out.println("Task was added successfully");
+        Task task = entry.toTask();
+        Task otherTask = other.toTask();
+        return Objects.equals(task.getTitle(), otherTask.getTitle()) && Objects.equals(task.getDetails(), otherTask.getDetails());
+    }
+
+    /* Brings the list back to the version: the store takes its nodes in O(1), while the index, the deadlines
+       and the persister are told only about the tasks which differ. Returns the number of the changed tasks.
+       Should be called under the lock
+     */
+    private int revert(TaskStore version, boolean log) {
+        final int changed = (log ? persist(tasks, version) : 0);
+        tasks.diff(version, (entry, old) -> {
+            heapTasks += (old instanceof Task ? 1 : 0) - (entry instanceof Task ? 1 : 0);
+            if (index != null) {
+                if (entry != null) {
+                    index.remove(entry);
+                }
+                if (old != null) {
+                    index.add(old);
+                }
+            }
+            if (old != null) {
+                track(old);
+            } else {
+                deadlines.cancel(entry.getId());
+            }
+        });
+        tasks.restore(version);
+        return changed;
+    }
+
+    /* Writes the queued changes and stops the background persister and the deadlines.
+       A transaction which is still open is rolled back
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (transaction != null) {
+                rollback(NOWHERE);
+            }
+        }
+        deadlines.close();
+        persister.close();
+        metrics.unregister();
+    }
+
+    private int backlog() {
+        return persister.backlog();
     }
 
-    private int getAvailableId() {
-        return (tasks.isEmpty() ? 1 : tasks.get(tasks.size() - 1).getId() + 1);
+    public Metrics getMetrics() {
+        return metrics;
     }
 
-    void add(final String req) {
+    @Override
+    public void registerMetrics() {
         try {
-            Map<String, String> optionsVals = new Parser(ADD_REQUEST_OPTIONS).parse(req);
-            String title = optionsVals.get("-t");
-            String details = optionsVals.get("-dt");
-            String deadline = optionsVals.get("-dl");
+            metrics.register(filename);
+        } catch (JMException e) {
+            System.out.println("Couldn't register the metrics: " + e.getMessage());
+        }
+    }
 
-            save(new Task(getAvailableId(), title, details, deadline));
-        } catch (ParserException | TaskException e) {
-            System.out.println("Couldn't parse add request options: " + e.getMessage());
+    /* Keeps the deadline of the task scheduled while the task is undone */
+    private void track(TaskEntry entry) {
+        if (entry.isDone()) {
+            deadlines.cancel(entry.getId());
+        } else {
+            deadlines.schedule(entry.getId(), entry.getDeadlineMillis());
+        }
+    }
+
+    /* The store is changed only through these two, so that the tasks kept as objects are counted */
+    private TaskEntry putEntry(TaskEntry entry) {
+        TaskEntry previous = tasks.put(entry);
+        heapTasks += (entry instanceof Task ? 1 : 0) - (previous instanceof Task ? 1 : 0);
+        return previous;
+    }
+
+    private TaskEntry removeEntry(int id) {
+        TaskEntry removed = tasks.remove(id);
+        heapTasks -= (removed instanceof Task ? 1 : 0);
+        return removed;
+    }
+
+    /* Moves the cold tasks out of the heap once more of them are kept as objects than the memory allows:
+       the done ones go first, then the undone ones from the oldest, until half of the allowance is free.
+       They are written into the binary segments and replaced with the mapped rows, so they are decoded again
+       only when they are listed. A segment file is deleted at once, its mapping stays while any of its rows
+       is in the list. Should be called under the lock
+     */
+    private void spill() {
+        final int allowed = config.getHeapTasks();
+        if (heapTasks <= allowed) {
+            return;
+        }
+        final int excess = heapTasks - allowed / 2;
+        List<Task> cold = new ArrayList<>();
+        tasks.forEachEntry(entry -> {
+            if (entry instanceof Task && entry.isDone()) {
+                cold.add((Task) entry);
+            }
+        });
+        tasks.forEachEntry(entry -> {
+            if (entry instanceof Task && !entry.isDone() && cold.size() < excess) {
+                cold.add((Task) entry);
+            }
+        });
+        for (int from = 0; from < cold.size(); from += SEGMENT_TASKS) {
+            List<Task> segment = cold.subList(from, Math.min(cold.size(), from + SEGMENT_TASKS));
+            MappedTaskFile mapped = writeSegment(segment);
+            if (mapped == null) {
+                return;
+            }
+            for (int row = 0; row < segment.size(); row++) {
+                putEntry(mapped.row(row, segment.get(row).getId()));
+            }
+        }
+    }
+
+    private static MappedTaskFile writeSegment(List<Task> segment) {
+        Path file = null;
+        try {
+            file = Files.createTempFile("todo-segment", BinaryUtills.EXTENSION);
+            BinaryUtills.write(segment, file.toString());
+            return MappedTaskFile.open(file.toString());
+        } catch (IOException e) {
+            System.out.println("Couldn't spill tasks to disk: " + e.getMessage());
+            return null;
+        } finally {
+            if (file != null) {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    /* a mapped file can't be deleted on some systems */
+                    file.toFile().deleteOnExit();
+                }
+            }
+        }
+    }
+
+    /* The tasks kept as objects, the rest are columns or mapped segments */
+    synchronized int heapTasks() {
+        return heapTasks;
+    }
+
+    @Override
+    public void addExpiryListener(Consumer<Task> listener) {
+        deadlines.addListener((id, deadline) -> {
+            TaskEntry entry = published.entry(id);
+            if (entry != null && !entry.isDone() && entry.getDeadlineMillis() == deadline) {
+                listener.accept(entry.toTask());
+            }
+        });
+    }
+
+    /* The ids may run out in the middle of a loaded file, which is then reverted as a whole */
+    private int nextId() {
+        final int id = ids.next();
+        if (id == IdAllocator.NO_ID) {
+            throw new IllegalStateException("no more ids");
+        }
+        return id;
+    }
+
+    /* Gives the task its id, returns the id or -1 if the list is full */
+    private synchronized int save(Task task, PrintStream out) {
+        if (tasks.size() >= config.getCapacity()) {
+            out.println("The task is not saved as the maximum possible tasks number is " + config.getCapacity());
+            return -1;
+        }
+        final int id = ids.next();
+        if (id == IdAllocator.NO_ID) {
+            out.println("The task is not saved as there are no more ids, the greatest one is taken");
+            return -1;
+        }
+        task.setId(id);
+        putEntry(task);
+        track(task);
+        if (index != null) {
+            index.add(task);
         }
+        if (!batching) {
+            persister.added(task);
+        }
+        changed();
+        out.println("Task was added successfully");
+        return task.getId();
+    }
+
+    /* Returns the id of the new task or -1 if it was not added */
+    int add(final String req) {
+        return add(req, System.out);
     }
 
-    private boolean taskExists(Task task) {
-        return (Collections.binarySearch(tasks, task, Comparator.comparingInt(Task::getId)) >= 0);
+    int add(final String req, PrintStream out) {
+        return add(WORDS.get().reset(req), out);
+    }
+
+    /* Takes the options which follow the current word */
+    private int add(RequestTokenizer words, PrintStream out) {
+        try {
+            Parser options = ADD_OPTIONS.get();
+            options.parse(words);
+            String title = options.get("-t");
+            String details = options.get("-dt");
+            String deadline = options.get("-dl");
+
+            return save(new Task(0, title, details, deadline), out);
+        } catch (ParserException | TaskException e) {
+            out.println("Couldn't parse add request options: " + e.getMessage());
+        }
+        return -1;
     }
 
     void remove(int id) {
-        if (!taskExists(new Task(id))) {
-            System.out.println("No task with id " + id);
+        remove(id, System.out);
+    }
+
+    synchronized void remove(int id, PrintStream out) {
+        TaskEntry removed = removeEntry(id);
+        if (removed == null) {
+            out.println("No task with id " + id);
             return;
         }
-        wasDone.remove(id);
-        toRemove.add(id);
-        modifications++;
-        storeChanges(false);
-        System.out.println("Task " + id + " was removed successfully");
+        deadlines.cancel(id);
+        if (index != null) {
+            index.remove(removed);
+        }
+        if (!batching) {
+            persister.removed(id);
+        }
+        changed();
+        out.println("Task " + id + " was removed successfully");
     }
 
 
     String list(Set<String> flags) {
+        StringWriter out = new StringWriter();
+        try {
+            list(flags, out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    void list(Set<String> flags, Writer out) throws IOException {
         if (flags.isEmpty()) {
             flags.add("all");
         }
-        StringBuilder sb = new StringBuilder();
-        pushChanges();
-        for (Task task : tasks) {
-            if (flags.contains("all") || (flags.contains("done") && task.isDone())
-            || (flags.contains("undone") && !task.isDone()) || (flags.contains("expired") && task.isExpired() && !task.isDone())) {
-                sb.append(task.display());
+        list(new TaskQuery(flags, TaskQuery.Order.ID), null, Integer.MAX_VALUE, out);
+    }
+
+    /* The tasks are written one by one, so the output starts at once and the list is never kept in memory */
+    void list(TaskQuery query, TaskEntry after, int limit, Writer out) throws IOException {
+        final long now = System.currentTimeMillis();
+        try {
+            query.forEach(published, after, limit, now, task -> {
+                try {
+                    task.toTask().display(out, now);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /* Parses [flags...] [--limit N] [--after id] [--sort id|deadline|title] and prints the requested page */
+    void list(final String args, Writer out) throws IOException {
+        list(WORDS.get().reset(args), out);
+    }
+
+    /* The options of a list request */
+    static class ListRequest {
+        TaskQuery query;
+        int limit = Integer.MAX_VALUE;
+        int after = 0;
+        boolean hasAfter = false;
+
+        /* Takes the words which follow the current one. Returns null if they are wrong, the message is written to out */
+        static ListRequest parse(RequestTokenizer words, Writer out) throws IOException {
+            ListRequest request = new ListRequest();
+            boolean flags = false, all = false, done = false, undone = false, expired = false;
+            TaskQuery.Order order = TaskQuery.Order.ID;
+            try {
+                while (words.next()) {
+                    if (words.is("--limit")) {
+                        request.limit = optionValue(words, "--limit").intValue();
+                        if (request.limit < 0) {
+                            throw new ParserException("Limit cannot be negative");
+                        }
+                    } else if (words.is("--after")) {
+                        request.after = optionValue(words, "--after").intValue();
+                        request.hasAfter = true;
+                    } else if (words.is("--sort")) {
+                        optionValue(words, "--sort");
+                        order = (words.is("id") ? TaskQuery.Order.ID : words.is("deadline") ? TaskQuery.Order.DEADLINE
+                                : words.is("title") ? TaskQuery.Order.TITLE : null);
+                        if (order == null) {
+                            out.write("Couldn't parse list request options: only id, deadline and title sorts are supported" + System.lineSeparator());
+                            return null;
+                        }
+                    } else {
+                        flags = true;
+                        all |= words.is("all");
+                        done |= words.is("done");
+                        undone |= words.is("undone");
+                        expired |= words.is("expired");
+                    }
+                }
+            } catch (NumberFormatException e) {
+                out.write("Couldn't parse list request options: number expected" + System.lineSeparator());
+                return null;
+            } catch (ParserException e) {
+                out.write("Couldn't parse list request options: " + e.getMessage() + System.lineSeparator());
+                return null;
             }
+            all |= !flags;
+            request.query = new TaskQuery(all || done, all || undone, expired, order);
+            return request;
         }
 
-        return sb.toString();
+        /* In the other orders the page starts after the position of the task, so the task must be in the list.
+           Returns null if it is not
+         */
+        TaskEntry after(TaskStore tasks) {
+            return (query.getOrder() == TaskQuery.Order.ID ? new Task(after) : tasks.entry(after));
+        }
+    }
+
+    /* Takes the words which follow the current one */
+    private void list(RequestTokenizer words, Writer out) throws IOException {
+        ListRequest request = ListRequest.parse(words, out);
+        if (request == null) {
+            return;
+        }
+        TaskEntry afterEntry = null;
+        if (request.hasAfter) {
+            afterEntry = request.after(published);
+            if (afterEntry == null) {
+                out.write("No task with id " + request.after + System.lineSeparator());
+                return;
+            }
+        }
+        list(request.query, afterEntry, request.limit, out);
+    }
+
+    private static RequestTokenizer optionValue(RequestTokenizer words, final String option) throws ParserException {
+        if (!words.next()) {
+            throw new ParserException("Value of " + option + " option expected");
+        }
+        return words;
+    }
+
+    /* Prints the tasks found by SearchIndex.search in id order */
+    void search(final String query, Writer out) throws IOException {
+        final long now = System.currentTimeMillis();
+        for (TaskEntry entry : find(query)) {
+            entry.toTask().display(out, now);
+        }
+    }
+
+    /* Finds the tasks of the published list, as the lists show them: the index follows the open transaction,
+       so its new tasks are skipped and the tasks it has removed are looked up among the removed ones
+     */
+    synchronized List<TaskEntry> find(final String query) {
+        if (index == null) {
+            index = new SearchIndex();
+            tasks.forEachEntry(index::add);
+        }
+        final TaskStore shown = published;
+        int[] ids = index.search(query);
+        if (shown != tasks) {
+            SearchIndex removed = new SearchIndex();
+            tasks.diff(shown, (entry, old) -> {
+                if (entry == null) {
+                    removed.add(old);
+                }
+            });
+            int[] more = removed.search(query);
+            if (more.length > 0) {
+                ids = Arrays.copyOf(ids, ids.length + more.length);
+                System.arraycopy(more, 0, ids, ids.length - more.length, more.length);
+                Arrays.sort(ids);
+            }
+        }
+        List<TaskEntry> found = new ArrayList<>();
+        for (int id : ids) {
+            TaskEntry entry = shown.entry(id);
+            if (entry != null) {
+                found.add(entry);
+            }
+        }
+        return found;
+    }
+
+    /* The latest version of the list, it is never changed */
+    TaskStore published() {
+        return published;
+    }
+
+    /* Lets the callers walk the list page by page */
+    public TaskCursor cursor(Set<String> flags, TaskQuery.Order order) {
+        return new TaskCursor(() -> published, new TaskQuery(flags, order));
     }
 
     void markAsDone(int id) {
-        if (!taskExists(new Task(id))) {
-            System.out.println("No task with id " + id);
+        markAsDone(id, System.out);
+    }
+
+    synchronized void markAsDone(int id, PrintStream out) {
+        Task task = tasks.get(id);
+        if (task == null) {
+            out.println("No task with id " + id);
+            return;
         }
-        wasDone.add(id);
-        modifications++;
+        Task done = new Task(task);
+        done.setDone(true);
+        putEntry(done);
+        deadlines.cancel(id);
+        if (!batching) {
+            persister.done(done);
+        }
+        changed();
+        out.println("Task " + id + " was marked as done");
+    }
+
+    /* Executes the requests as one change: their messages are not printed, and the list is published
+       and written to disk once, after the last request. The changes are not logged one by one, so if the program
+       is stopped in the middle of a batch, none of them is kept.
+       The exit request ends the batch
+     */
+    @Override
+    public void batch(BufferedReader reader, PrintStream out) throws IOException {
+        List<String> requests = new ArrayList<>();
+        String request;
+        while ((request = reader.readLine()) != null) {
+            requests.add(request);
+        }
+
+        final long start = System.nanoTime();
+        int executed = 0;
+        int changes;
+        long stored;
+        synchronized (this) {
+            if (batching) {
+                out.println("A batch cannot be executed in another batch or in a transaction");
+                return;
+            }
+            final int before = modifications;
+            final TaskStore version = published;
+            batching = true;
+            try {
+                for (String next : requests) {
+                    executed++;
+                    if (!processRequest(next, NOWHERE)) {
+                        break;
+                    }
+                }
+            } finally {
+                changes = modifications - before;
+                batching = false;
+                if (changes > 0) {
+                    remember(version);
+                }
+                publish();
+                stored = System.nanoTime();
+                /* the loaded files make the snapshot stale as well */
+                if (changes > 0 || snapshotStale) {
+                    if (config.isSlots() && !snapshotStale) {
+                        persist(version, tasks);
+                    }
+                    snapshotStale |= !config.isSlots();
+                    storeChanges(true);
+                }
+            }
+        }
+        final long end = System.nanoTime();
+        out.printf("Executed %d requests with %d changes in %d ms (%.0f requests/s), saved in %d ms%n",
+                executed, changes, (stored - start) / 1000000, executed * 1e9 / Math.max(1, stored - start),
+                (end - stored) / 1000000);
+    }
+
+    /* Starts a transaction of the client: the following changes are neither shown to the lists nor written
+       until the commit, and the rollback discards them. There is one transaction for the whole manager,
+       the other clients cannot change the list until it ends
+     */
+    synchronized void begin(PrintStream out, Object client) {
+        if (batching) {
+            out.println("A transaction cannot be started in a batch or in another transaction");
+            return;
+        }
+        transaction = published;
+        transactionClient = client;
+        batching = true;
+        out.println("Transaction was started");
+    }
+
+    /* Writes only the tasks changed by the transaction, and remembers it as one change to undo */
+    synchronized void commit(PrintStream out) {
+        if (transaction == null) {
+            out.println("No transaction to commit");
+            return;
+        }
+        batching = false;
+        final int changed = persist(transaction, tasks);
+        if (changed > 0) {
+            remember(transaction);
+        }
+        transaction = null;
+        transactionClient = null;
+        publish();
         storeChanges(false);
-        System.out.println("Task " + id + " was marked as done");
+        out.println("Transaction was committed with " + changed + " changed tasks");
     }
 
-    private Stream<String> getArgs(final String request) {
-        return Arrays.stream(request
-                .split(" "))
-                .filter(Predicate.not(String::isEmpty));
+    /* Takes the list as it was before the transaction, without copying it */
+    synchronized void rollback(PrintStream out) {
+        if (transaction == null) {
+            out.println("No transaction to roll back");
+            return;
+        }
+        revert(transaction, false);
+        transaction = null;
+        transactionClient = null;
+        batching = false;
+        publish();
+        out.println("Transaction was rolled back");
     }
 
-    public boolean processRequest(final String request) {
-        if (request.startsWith("exit")) {
-            return false;
+    /* The transaction of a client which has gone is rolled back, so it doesn't lock the list forever */
+    @Override
+    public synchronized void disconnected(Object client) {
+        if (transaction != null && transactionClient == client) {
+            rollback(NOWHERE);
         }
+    }
 
-        if (request.startsWith("load")) {
-            getArgs(request.substring(4))
-                    .forEach(this::load);
-            return true;
+    synchronized void undo(PrintStream out) {
+        step(undo, redo, "undo", out);
+    }
+
+    synchronized void redo(PrintStream out) {
+        step(redo, undo, "redo", out);
+    }
+
+    /* Takes the version from one history and remembers the current one in the other */
+    private void step(Deque<TaskStore> from, Deque<TaskStore> to, final String name, PrintStream out) {
+        if (batching) {
+            out.println("Cannot " + name + " in a batch or in a transaction");
+            return;
+        }
+        if (from.isEmpty()) {
+            out.println("Nothing to " + name);
+            return;
         }
+        to.push(published);
+        final int changed = revert(from.pop(), true);
+        modifications += changed;
+        spill();
+        publish();
+        storeChanges(false);
+        out.println("Changes of " + changed + " tasks were " + (name.equals("undo") ? "undone" : "redone"));
+    }
 
-        if (request.startsWith("add")) {
-            add(request.substring(3));
-            return true;
+    void convert(final String from, final String to, PrintStream out) {
+        if (TaskFormat.convert(from, to)) {
+            out.println("Converted " + from + " to " + to);
+        } else {
+            out.println("Nothing was converted as " + from + " does not contain tasks");
         }
+    }
 
+    @Override
+    public boolean processRequest(final String request, PrintStream out) {
+        return processRequest(request, out, null);
+    }
+
+    @Override
+    public boolean processRequest(final String request, PrintStream out, Object client) {
+        final long start = System.nanoTime();
+        RequestTokenizer words = WORDS.get().reset(request);
+        final Command command = Command.of(words);
         try {
-            if (request.startsWith("remove")) {
-                getArgs(request.substring(6))
-                        .map(Integer::valueOf)
-                        .forEach(this::remove);
-                return true;
+            if (!command.changesList()) {
+                return execute(command, words, request, out, client);
+            }
+            /* checked under the lock, so no other client begins a transaction before the change is made */
+            synchronized (this) {
+                if (transaction != null && transactionClient != client) {
+                    out.println("The list is changed in a transaction of another client, try again when it ends");
+                    return true;
+                }
+                return execute(command, words, request, out, client);
             }
+        } finally {
+            metrics.request(command.ordinal(), System.nanoTime() - start);
+        }
+    }
 
-            if (request.startsWith("done")) {
-                getArgs(request.substring(4))
-                        .map(Integer::valueOf)
-                        .forEach(this::markAsDone);
+    private boolean execute(Command command, RequestTokenizer words, final String request, PrintStream out, Object client) {
+        /* the batch executes its requests with the same tokenizer, so the words are not read after it */
+        switch (command) {
+            case EXIT:
+                return false;
+            case BATCH:
+                List<String> batch = words.words();
+                if (batch.size() != 1) {
+                    out.println("Batch file expected in this request");
+                } else {
+                    batch(batch.get(0), out);
+                }
+                return true;
+            case LOAD:
+                load(words.words(), out);
+                return true;
+            case ADD:
+                add(words, out);
+                return true;
+            case CONVERT:
+                List<String> files = words.words();
+                if (files.size() != 2) {
+                    out.println("Source and destination files expected in this request");
+                } else {
+                    convert(files.get(0), files.get(1), out);
+                }
+                return true;
+            case REMOVE:
+            case DONE:
+                final int count;
+                try {
+                    count = words.readInts();
+                } catch (NumberFormatException e) {
+                    out.println("Only id numbers expected in this request");
+                    return true;
+                }
+                change(command, count, words.ints(), out);
+                return true;
+            case LIST:
+            case SEARCH:
+                Writer writer = RequestProcessor.writer(out);
+                try {
+                    if (command == Command.LIST) {
+                        list(words, writer);
+                    } else {
+                        search(request.substring(words.end()), writer);
+                    }
+                    writer.flush();
+                } catch (IOException e) {
+                    out.println("Couldn't print tasks list: " + e.getMessage());
+                }
+                return true;
+            case STATS:
+                metrics.print(out);
+                return true;
+            case BEGIN:
+                begin(out, client);
+                return true;
+            case COMMIT:
+                commit(out);
+                return true;
+            case ROLLBACK:
+                rollback(out);
+                return true;
+            case UNDO:
+                undo(out);
                 return true;
+            case REDO:
+                redo(out);
+                return true;
+            default:
+                out.println("Unsupported operation");
+                return true;
+        }
+    }
+
+    /* The tasks of one request are undone together */
+    private synchronized void change(Command command, int count, int[] ids, PrintStream out) {
+        final TaskStore before = published;
+        grouped = true;
+        try {
+            for (int i = 0; i < count; i++) {
+                if (command == Command.REMOVE) {
+                    remove(ids[i], out);
+                } else {
+                    markAsDone(ids[i], out);
+                }
             }
-        } catch (NumberFormatException e) {
-            System.out.println("Only id numbers expected in this request");
+        } finally {
+            grouped = false;
         }
+        if (published != before) {
+            remember(before);
+        }
+    }
 
+    private static void logExpired(Task task) {
+        System.out.println("Task " + task.getId() + " \"" + task.getTitle() + "\" has expired");
+    }
 
-        if (request.startsWith("list")) {
-            System.out.print(list(getArgs(request.substring(4)).collect(Collectors.toSet())));
-            return true;
+    /* Serves the requests over TCP instead of the console; the journal keeps the changes if the server is killed */
+    private static void serve(RequestProcessor taskManager, int port) {
+        taskManager.addExpiryListener(TaskManager::logExpired);
+        taskManager.registerMetrics();
+        try (TaskServer server = new TaskServer(taskManager, port)) {
+            System.out.println("Serving requests on port " + server.getPort());
+            server.serve();
+        } catch (IOException e) {
+            System.out.println("Couldn't serve requests: " + e.getMessage());
+        } finally {
+            taskManager.storeChanges(true);
+            taskManager.close();
         }
+    }
 
-        System.out.println("Unsupported operation");
-
-        return true;
+    /* With more than one shard the list is split between the managers of the shards.
+       Returns null if the files are split in another way, see ShardedTaskManager.prepare
+     */
+    private static RequestProcessor open(Config config) {
+        if (!ShardedTaskManager.prepare(config)) {
+            return null;
+        }
+        return (config.getShards() > 1 ? new ShardedTaskManager(config) : new TaskManager(config));
     }
 
     public static void main(String[] args) {
-        TaskManager taskManager = new TaskManager();
+        Config config = Config.load();
+        if (args.length > 0 && args[0].equals("--compact")) {
+            config = config.withCompact(true);
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            int port = TaskServer.DEFAULT_PORT;
+            if (args.length > 1) {
+                try {
+                    port = Integer.parseInt(args[1]);
+                } catch (NumberFormatException e) {
+                    System.out.println("Port number expected");
+                    return;
+                }
+            }
+            RequestProcessor taskManager = open(config);
+            if (taskManager != null) {
+                serve(taskManager, port);
+            }
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--batch")) {
+            RequestProcessor taskManager = open(config);
+            if (taskManager == null) {
+                return;
+            }
+            taskManager.registerMetrics();
+            if (args.length > 1) {
+                taskManager.batch(args[1], System.out);
+            } else {
+                try {
+                    taskManager.batch(new BufferedReader(new InputStreamReader(System.in)), System.out);
+                } catch (IOException e) {
+                    System.out.println("Couldn't read the batch: " + e.getMessage());
+                }
+            }
+            taskManager.close();
+            return;
+        }
+        RequestProcessor taskManager = open(config);
+        if (taskManager == null) {
+            return;
+        }
+        taskManager.addExpiryListener(TaskManager::logExpired);
+        taskManager.registerMetrics();
 
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))) {
             while (true) {
                 try {
-                    if (!taskManager.processRequest(reader.readLine())) {
+                    String request = reader.readLine();
+                    if (request == null || !taskManager.processRequest(request)) {
                         break;
                     }
                 } catch (IOException e) {
@@ -241,6 +1232,7 @@ public class TaskManager {
             System.out.println(e.getMessage() + "; program will be terminated");
         } finally {
             taskManager.storeChanges(true);
+            taskManager.close();
         }
     }
 
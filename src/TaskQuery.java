@@ -0,0 +1,162 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/* Which tasks to list and in which order.
+   The tasks are listed page by page: a page starts right after the last task of the previous one,
+   so the pages stay consistent while the list is being changed.
+   In id order a page is read straight from the TaskStore. In the other orders the best tasks are
+   selected with a heap of the page size, so the matching tasks are never sorted as a whole
+ */
+public class TaskQuery {
+    public enum Order {
+        ID(Comparator.comparingInt(candidate -> candidate.entry.getId())),
+        /* the tasks without a deadline go last */
+        DEADLINE(Comparator.comparingLong((Candidate candidate) -> candidate.deadline)
+                .thenComparingInt(candidate -> candidate.entry.getId())),
+        TITLE(Comparator.comparing((Candidate candidate) -> candidate.title, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+                .thenComparingInt(candidate -> candidate.entry.getId()));
+
+        private final Comparator<Candidate> comparator;
+
+        Order(Comparator<Candidate> comparator) {
+            this.comparator = comparator;
+        }
+    }
+
+    /* A task with the key of the order, which is read once: the entries of the loaded files decode
+       the whole task to tell its title, so it is not done on every comparison of the heap
+     */
+    private static class Candidate {
+        final TaskEntry entry;
+        final long deadline;
+        final String title;
+
+        Candidate(TaskEntry entry, Order order) {
+            this.entry = entry;
+            this.deadline = (order != Order.DEADLINE || entry.getDeadlineMillis() == TaskEntry.NO_DEADLINE
+                    ? Long.MAX_VALUE : entry.getDeadlineMillis());
+            this.title = (order == Order.TITLE ? entry.toTask().getTitle() : null);
+        }
+    }
+
+    private final boolean done;
+    private final boolean undone;
+    private final boolean expired;
+    private final Order order;
+
+    /* The flags are those of the list request, no flags mean all the tasks */
+    public TaskQuery(Set<String> flags, Order order) {
+        this(flags.isEmpty() || flags.contains("all") || flags.contains("done"),
+                flags.isEmpty() || flags.contains("all") || flags.contains("undone"), flags.contains("expired"), order);
+    }
+
+    public TaskQuery(boolean done, boolean undone, boolean expired, Order order) {
+        this.done = done;
+        this.undone = undone;
+        this.expired = expired;
+        this.order = order;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    /* Returns up to limit tasks which follow the task after (null for the first page) in the order */
+    public List<TaskEntry> page(TaskStore tasks, TaskEntry after, int limit) {
+        List<TaskEntry> page = new ArrayList<>(Math.min(limit, tasks.size()));
+        forEach(tasks, after, limit, page::add);
+        return page;
+    }
+
+    /* The same, but in id order the tasks are passed to the action as they are found, without collecting them */
+    public void forEach(TaskStore tasks, TaskEntry after, int limit, Consumer<? super TaskEntry> action) {
+        forEach(tasks, after, limit, System.currentTimeMillis(), action);
+    }
+
+    /* now decides which tasks are expired */
+    public void forEach(TaskStore tasks, TaskEntry after, int limit, long now, Consumer<? super TaskEntry> action) {
+        if (limit <= 0 || (after != null && order == Order.ID && after.getId() == Integer.MAX_VALUE)) {
+            return;
+        }
+        if (order == Order.ID) {
+            final int[] left = {limit};
+            tasks.forEachMatching(after == null ? 0 : after.getId() + 1, done, undone, expired, now, entry -> {
+                action.accept(entry);
+                return --left[0] > 0;
+            });
+            return;
+        }
+
+        List<Candidate> page = best(tasks, after, limit, now);
+        page.sort(order.comparator);
+        page.forEach(candidate -> action.accept(candidate.entry));
+    }
+
+    /* The best tasks after the given one, not sorted */
+    private List<Candidate> best(TaskStore tasks, TaskEntry after, int limit, long now) {
+        final Candidate from = (after != null ? new Candidate(after, order) : null);
+        /* the worst of the best tasks is on the top of the heap */
+        PriorityQueue<Candidate> best = new PriorityQueue<>(Math.min(limit, tasks.size()) + 1, order.comparator.reversed());
+        tasks.forEachMatching(done, undone, expired, now, entry -> {
+            Candidate candidate = new Candidate(entry, order);
+            if (from != null && order.comparator.compare(candidate, from) <= 0) {
+                return;
+            }
+            if (best.size() < limit) {
+                best.add(candidate);
+            } else if (order.comparator.compare(candidate, best.peek()) < 0) {
+                best.poll();
+                best.add(candidate);
+            }
+        });
+        return new ArrayList<>(best);
+    }
+
+    /* The same for a list split into shards by the ranges of ids, see ShardedTaskManager.
+       In id order the ranges are walked one after another, and a shard is skipped up to its next matching task,
+       so the tasks are still passed on as they are found. In the other orders the pages of the shards are merged
+     */
+    public void forEach(TaskStore[] shards, TaskEntry after, int limit, long now, Consumer<? super TaskEntry> action) {
+        if (limit <= 0 || (after != null && order == Order.ID && after.getId() == Integer.MAX_VALUE)) {
+            return;
+        }
+        if (order != Order.ID) {
+            List<Candidate> merged = new ArrayList<>();
+            for (TaskStore shard : shards) {
+                merged.addAll(best(shard, after, limit, now));
+            }
+            merged.sort(order.comparator);
+            merged.subList(0, Math.min(limit, merged.size())).forEach(candidate -> action.accept(candidate.entry));
+            return;
+        }
+
+        int last = 0;
+        for (TaskStore shard : shards) {
+            last = Math.max(last, shard.lastId());
+        }
+        /* the least id of every shard which may match, as far as it is known */
+        final long[] next = new long[shards.length];
+        final int[] left = {limit};
+        for (long from = (after == null ? 0 : after.getId() + 1L); from <= last && left[0] > 0; ) {
+            final long end = (from / IdAllocator.BLOCK_IDS + 1) * IdAllocator.BLOCK_IDS;
+            final int k = IdAllocator.shardOf((int) from, shards.length);
+            if (next[k] < end) {
+                final int start = (int) Math.max(from, next[k]);
+                next[k] = Long.MAX_VALUE;
+                shards[k].forEachMatching(start, done, undone, expired, now, entry -> {
+                    if (entry.getId() >= end) {
+                        next[k] = entry.getId();
+                        return false;
+                    }
+                    action.accept(entry);
+                    return --left[0] > 0;
+                });
+            }
+            from = end;
+        }
+    }
+}
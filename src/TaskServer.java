@@ -0,0 +1,239 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/* Serves the requests of TaskManager or ShardedTaskManager on a local TCP port.
+   A request is a line of the same form as in the console, a client may send many of them without waiting for
+   the responses. Every request gets one response frame, in the order of the requests: the length of the response
+   in bytes, a line feed and the response itself, that is the text which the console would show.
+   The requests and the responses are in UTF-8, whatever the default charset of the server is.
+   All the connections are served by one thread, the requests of a connection are executed one by one.
+   The exit request closes the connection only.
+   The requests which name files (batch, load and convert) are refused: the server would read and write
+   any file it can access on behalf of any local client. A request which fails gets the error as its response,
+   the connection and the other clients are served on.
+   A transaction belongs to its connection: the other connections cannot change the list while it is open,
+   and it is rolled back when the connection is closed
+ */
+public class TaskServer implements Closeable {
+    static final int DEFAULT_PORT = 7700;
+    /* a longer request closes the connection */
+    static final int MAX_REQUEST_LENGTH = 64 * 1024;
+    /* the requests of a connection are not read while that much of its responses is not sent */
+    private static final int MAX_PENDING_RESPONSES = 256 * 1024;
+
+    private static class Connection {
+        final SocketChannel channel;
+        final ByteBuffer requests = ByteBuffer.allocate(MAX_REQUEST_LENGTH);
+        final ByteArrayOutputStream responses = new ByteArrayOutputStream();
+        ByteBuffer pending = null;
+        boolean finished = false;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final RequestProcessor manager;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ByteArrayOutputStream response = new ByteArrayOutputStream();
+    private final PrintStream responseOut = new PrintStream(response, false, StandardCharsets.UTF_8);
+    private final RequestTokenizer words = new RequestTokenizer();
+    private volatile boolean running = true;
+
+    public TaskServer(RequestProcessor manager, int port) throws IOException {
+        this.manager = manager;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /* Serves the clients until the server is closed */
+    public void serve() throws IOException {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(key, connection);
+                        } else if (key.isWritable()) {
+                            proceed(key, connection);
+                        }
+                    } catch (IOException e) {
+                        /* the client has gone, nothing to answer */
+                        disconnect(key, connection);
+                    }
+                }
+            }
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    manager.disconnected(key.attachment());
+                }
+                key.channel().close();
+            }
+            selector.close();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+    }
+
+    private void read(SelectionKey key, Connection connection) throws IOException {
+        if (connection.channel.read(connection.requests) < 0) {
+            disconnect(key, connection);
+            return;
+        }
+        proceed(key, connection);
+    }
+
+    /* Executes the received requests and sends the responses while the client takes them */
+    private void proceed(SelectionKey key, Connection connection) throws IOException {
+        boolean more = true;
+        while (more) {
+            if (connection.pending == null) {
+                more = execute(connection);
+                if (!connection.requests.hasRemaining() && connection.responses.size() == 0) {
+                    respond(connection, "Request is too long, the connection will be closed" + System.lineSeparator());
+                    connection.finished = true;
+                }
+            }
+            send(key, connection);
+            more = more && connection.pending == null && key.isValid();
+        }
+    }
+
+    /* Executes the complete requests of the buffer.
+       Returns true if it has stopped because there are enough responses to send
+     */
+    private boolean execute(Connection connection) throws IOException {
+        ByteBuffer requests = connection.requests;
+        requests.flip();
+        int start = requests.position();
+        boolean full = false;
+        for (int i = start; i < requests.limit() && !connection.finished; i++) {
+            if (connection.responses.size() >= MAX_PENDING_RESPONSES) {
+                full = true;
+                break;
+            }
+            if (requests.get(i) != '\n') {
+                continue;
+            }
+            int end = (i > start && requests.get(i - 1) == '\r' ? i - 1 : i);
+            String request = new String(requests.array(), start, end - start, StandardCharsets.UTF_8);
+            start = i + 1;
+
+            response.reset();
+            if (TaskManager.Command.of(words.reset(request)).usesFiles()) {
+                responseOut.println("Files are not read or written on the requests of the server, use the console or --batch");
+            } else {
+                try {
+                    if (!manager.processRequest(request, responseOut, connection)) {
+                        connection.finished = true;
+                    }
+                } catch (RuntimeException e) {
+                    responseOut.println("Couldn't execute the request: " + e);
+                }
+            }
+            responseOut.flush();
+            respond(connection, response);
+        }
+        requests.position(start);
+        requests.compact();
+        return full;
+    }
+
+    private void respond(Connection connection, ByteArrayOutputStream text) throws IOException {
+        byte[] header = (text.size() + "\n").getBytes(StandardCharsets.UTF_8);
+        connection.responses.write(header, 0, header.length);
+        text.writeTo(connection.responses);
+    }
+
+    private void respond(Connection connection, String text) throws IOException {
+        response.reset();
+        responseOut.print(text);
+        responseOut.flush();
+        respond(connection, response);
+    }
+
+    /* Writes as much of the responses as the socket takes, the rest is sent when it is writable again */
+    private void send(SelectionKey key, Connection connection) throws IOException {
+        if (connection.pending == null && connection.responses.size() > 0) {
+            connection.pending = ByteBuffer.wrap(connection.responses.toByteArray());
+            connection.responses.reset();
+        }
+        if (connection.pending != null) {
+            connection.channel.write(connection.pending);
+            if (connection.pending.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            connection.pending = null;
+        }
+        if (connection.finished) {
+            disconnect(key, connection);
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void disconnect(SelectionKey key, Connection connection) {
+        key.cancel();
+        manager.disconnected(connection);
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            /* closing anyway */
+        }
+    }
+
+    /* Stops serve(), may be called from any thread */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        server.close();
+    }
+}
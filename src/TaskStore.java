@@ -0,0 +1,455 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/* Tasks indexed by their id. The store keeps TaskEntry objects, so the tasks of a mapped file are decoded
+   only when they are requested with get or iterated as tasks; the filters should use the entries instead.
+   It is a radix trie with 32 slots in every node, so lookups, inserts and removals touch at most 7 nodes
+   (4 nodes for a million of tasks) and nothing is rebuilt after a removal.
+   As the slots are ordered by the bits of the id, a depth-first walk returns tasks sorted by id.
+   A snapshot shares all the nodes with the store: the nodes belong to the store that created them, and after
+   a snapshot is taken the store copies every node before changing it, so the snapshot never sees later changes.
+   Every node also sums up its subtree: the number of tasks, the number of done ones and the earliest deadline
+   of the undone ones. forEachMatching enters only the subtrees which contain a requested task, so listing
+   done, undone or expired tasks costs in proportion to the number of the listed tasks.
+   The sums are recomputed on put, so an entry which is changed in place must be put again.
+ */
+public class TaskStore implements Iterable<Task> {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static class Node {
+        final Object owner;
+        final Object[] slots;
+        int count;
+        int size;
+        int done;
+        long earliestDeadline = NO_UNDONE_DEADLINE;
+
+        Node(Object owner) {
+            this.owner = owner;
+            this.slots = new Object[WIDTH];
+        }
+
+        Node(Object owner, Node node) {
+            this.owner = owner;
+            this.slots = node.slots.clone();
+            this.count = node.count;
+            this.size = node.size;
+            this.done = node.done;
+            this.earliestDeadline = node.earliestDeadline;
+        }
+
+        void summarize(int level) {
+            size = 0;
+            done = 0;
+            earliestDeadline = NO_UNDONE_DEADLINE;
+            for (Object slot : slots) {
+                if (slot == null) {
+                    continue;
+                }
+                if (level == 0) {
+                    TaskEntry entry = (TaskEntry) slot;
+                    size++;
+                    if (entry.isDone()) {
+                        done++;
+                    } else if (entry.getDeadlineMillis() != TaskEntry.NO_DEADLINE) {
+                        earliestDeadline = Math.min(earliestDeadline, entry.getDeadlineMillis());
+                    }
+                } else {
+                    Node child = (Node) slot;
+                    size += child.size;
+                    done += child.done;
+                    earliestDeadline = Math.min(earliestDeadline, child.earliestDeadline);
+                }
+            }
+        }
+
+        boolean contains(boolean done, boolean undone, long expiredBefore) {
+            return (done && this.done > 0) || (undone && size > this.done) || earliestDeadline < expiredBefore;
+        }
+    }
+
+    /* The earliest deadline of a subtree without undone tasks with deadlines */
+    private static final long NO_UNDONE_DEADLINE = Long.MAX_VALUE;
+
+    private Object owner;
+    private Node root;
+    private int shift = 0;
+    private int size = 0;
+
+    public TaskStore() {
+        owner = new Object();
+        root = new Node(owner);
+    }
+
+    /* A snapshot shares the root, so it doesn't allocate one of its own */
+    private TaskStore(Node root, int shift, int size) {
+        this.owner = new Object();
+        this.root = root;
+        this.shift = shift;
+        this.size = size;
+    }
+
+    /* Takes O(1): the nodes are copied lazily by whichever of the stores changes them first */
+    public TaskStore snapshot() {
+        owner = new Object();
+        return new TaskStore(root, shift, size);
+    }
+
+    /* Makes the store equal to the given snapshot in O(1): the nodes are shared with it as after snapshot() */
+    public void restore(TaskStore version) {
+        owner = new Object();
+        root = version.root;
+        shift = version.shift;
+        size = version.size;
+    }
+
+    /* Calls the action with (the entry of the store, the entry of the other store) for every id whose entries differ,
+       in id order; either of them may be null. The subtrees which the stores share are not entered,
+       so comparing a store with its recent snapshot costs in proportion to the changes made since then
+     */
+    public void diff(TaskStore other, BiConsumer<? super TaskEntry, ? super TaskEntry> action) {
+        diff(root, shift, other.root, other.shift, action);
+    }
+
+    /* A taller tree keeps the shorter one in its first slot, as the root grows only to the left */
+    private static void diff(Node node, int level, Node other, int otherLevel, BiConsumer<? super TaskEntry, ? super TaskEntry> action) {
+        if (node == other) {
+            return;
+        }
+        if (level != otherLevel) {
+            final boolean taller = level > otherLevel;
+            Node high = (taller ? node : other);
+            final int highLevel = Math.max(level, otherLevel);
+            Node child = (Node) high.slots[0];
+            if (child == null) {
+                forEachEntry(taller ? other : node, Math.min(level, otherLevel),
+                        entry -> action.accept(taller ? null : entry, taller ? entry : null));
+            } else if (taller) {
+                diff(child, highLevel - BITS, other, otherLevel, action);
+            } else {
+                diff(node, level, child, highLevel - BITS, action);
+            }
+            for (int i = 1; i < WIDTH; i++) {
+                if (high.slots[i] != null) {
+                    forEachEntry((Node) high.slots[i], highLevel - BITS,
+                            entry -> action.accept(taller ? entry : null, taller ? null : entry));
+                }
+            }
+            return;
+        }
+        for (int i = 0; i < WIDTH; i++) {
+            Object slot = node.slots[i];
+            Object otherSlot = other.slots[i];
+            if (slot == otherSlot) {
+                continue;
+            }
+            if (level == 0) {
+                action.accept((TaskEntry) slot, (TaskEntry) otherSlot);
+            } else if (slot == null) {
+                forEachEntry((Node) otherSlot, level - BITS, entry -> action.accept(null, entry));
+            } else if (otherSlot == null) {
+                forEachEntry((Node) slot, level - BITS, entry -> action.accept(entry, null));
+            } else {
+                diff((Node) slot, level - BITS, (Node) otherSlot, level - BITS, action);
+            }
+        }
+    }
+
+    private Node editable(Node node) {
+        return node.owner == owner ? node : new Node(owner, node);
+    }
+
+    private Node editableChild(Node parent, int i) {
+        Node child = (Node) parent.slots[i];
+        Node editable = editable(child);
+        parent.slots[i] = editable;
+        return editable;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int doneCount() {
+        return root.done;
+    }
+
+    private boolean fits(int id) {
+        return shift + BITS >= Integer.SIZE || (id >>> (shift + BITS)) == 0;
+    }
+
+    public Task get(int id) {
+        TaskEntry entry = entry(id);
+        return (entry == null ? null : entry.toTask());
+    }
+
+    public TaskEntry entry(int id) {
+        if (id < 0 || !fits(id)) {
+            return null;
+        }
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node) node.slots[(id >>> level) & MASK];
+            if (node == null) {
+                return null;
+            }
+        }
+        return (TaskEntry) node.slots[id & MASK];
+    }
+
+    public boolean contains(int id) {
+        return entry(id) != null;
+    }
+
+    /* Returns the entry which was previously stored under the same id */
+    public TaskEntry put(TaskEntry task) {
+        final int id = task.getId();
+        if (id < 0) {
+            throw new IllegalArgumentException("Task id cannot be negative: " + id);
+        }
+        while (!fits(id)) {
+            Node newRoot = new Node(owner);
+            if (root.count > 0) {
+                newRoot.slots[0] = root;
+                newRoot.count = 1;
+                newRoot.summarize(shift + BITS);
+            }
+            root = newRoot;
+            shift += BITS;
+        }
+
+        Node[] path = new Node[shift / BITS + 1];
+        Node node = root = editable(root);
+        int depth = 0;
+        for (int level = shift; level > 0; level -= BITS) {
+            path[depth++] = node;
+            int i = (id >>> level) & MASK;
+            Node child;
+            if (node.slots[i] == null) {
+                child = new Node(owner);
+                node.slots[i] = child;
+                node.count++;
+            } else {
+                child = editableChild(node, i);
+            }
+            node = child;
+        }
+
+        TaskEntry previous = (TaskEntry) node.slots[id & MASK];
+        node.slots[id & MASK] = task;
+        if (previous == null) {
+            node.count++;
+            size++;
+        }
+        summarize(path, depth, node);
+        return previous;
+    }
+
+    /* Returns the removed entry or null, if there was no task with such id */
+    public TaskEntry remove(int id) {
+        if (!contains(id)) {
+            return null;
+        }
+        Node[] path = new Node[shift / BITS + 1];
+        Node node = root = editable(root);
+        int depth = 0;
+        for (int level = shift; level > 0; level -= BITS) {
+            path[depth++] = node;
+            node = editableChild(node, (id >>> level) & MASK);
+        }
+        TaskEntry removed = (TaskEntry) node.slots[id & MASK];
+        node.slots[id & MASK] = null;
+        node.count--;
+        size--;
+
+        /* Unlink the nodes which became empty, so that sparse id ranges don't keep garbage */
+        for (int level = BITS; node.count == 0 && depth > 0; level += BITS) {
+            Node parent = path[--depth];
+            parent.slots[(id >>> level) & MASK] = null;
+            parent.count--;
+            node = parent;
+        }
+        summarize(path, depth, node);
+        return removed;
+    }
+
+    /* Recomputes the sums from the changed node up to the root */
+    private static void summarize(Node[] path, int depth, Node node) {
+        int level = (path.length - 1 - depth) * BITS;
+        node.summarize(level);
+        while (depth > 0) {
+            level += BITS;
+            path[--depth].summarize(level);
+        }
+    }
+
+    /* The greatest id in the store or 0, if the store is empty */
+    public int lastId() {
+        if (size == 0) {
+            return 0;
+        }
+        Node node = root;
+        int id = 0;
+        for (int level = shift; ; level -= BITS) {
+            int i = WIDTH - 1;
+            while (node.slots[i] == null) {
+                i--;
+            }
+            id |= i << level;
+            if (level == 0) {
+                return id;
+            }
+            node = (Node) node.slots[i];
+        }
+    }
+
+    @Override
+    public void forEach(Consumer<? super Task> action) {
+        forEachEntry(entry -> action.accept(entry.toTask()));
+    }
+
+    public void forEachEntry(Consumer<? super TaskEntry> action) {
+        forEachEntry(root, shift, action);
+    }
+
+    private static void forEachEntry(Node node, int level, Consumer<? super TaskEntry> action) {
+        for (Object slot : node.slots) {
+            if (slot == null) {
+                continue;
+            }
+            if (level == 0) {
+                action.accept((TaskEntry) slot);
+            } else {
+                forEachEntry((Node) slot, level - BITS, action);
+            }
+        }
+    }
+
+    /* Visits in id order the entries which are done, undone or expired (undone with a deadline before now),
+       as requested by the flags
+     */
+    public void forEachMatching(boolean done, boolean undone, boolean expired, Consumer<? super TaskEntry> action) {
+        forEachMatching(done, undone, expired, System.currentTimeMillis(), action);
+    }
+
+    public void forEachMatching(boolean done, boolean undone, boolean expired, long now, Consumer<? super TaskEntry> action) {
+        forEachMatching(0, done, undone, expired, now, entry -> {
+            action.accept(entry);
+            return true;
+        });
+    }
+
+    /* The same, but starts from the given id and stops as soon as the action returns false.
+       The subtrees before the id are not entered, so taking a page costs in proportion to the page size.
+       Returns false if it was stopped
+     */
+    public boolean forEachMatching(int fromId, boolean done, boolean undone, boolean expired, Predicate<? super TaskEntry> action) {
+        return forEachMatching(fromId, done, undone, expired, System.currentTimeMillis(), action);
+    }
+
+    /* now is read by the caller, so a query compares all the deadlines with the same time */
+    public boolean forEachMatching(int fromId, boolean done, boolean undone, boolean expired, long now,
+                                   Predicate<? super TaskEntry> action) {
+        final long expiredBefore = (expired ? now : Long.MIN_VALUE);
+        if (fromId < 0) {
+            fromId = 0;
+        }
+        if (!fits(fromId) || !root.contains(done, undone, expiredBefore)) {
+            return true;
+        }
+        return forEachMatching(root, shift, fromId, true, done, undone, expiredBefore, action);
+    }
+
+    /* A bounded node lies on the path of fromId, so its slots before that path are skipped */
+    private static boolean forEachMatching(Node node, int level, int fromId, boolean bounded,
+                                           boolean done, boolean undone, long expiredBefore, Predicate<? super TaskEntry> action) {
+        final int start = (bounded ? (fromId >>> level) & MASK : 0);
+        for (int i = start; i < WIDTH; i++) {
+            Object slot = node.slots[i];
+            if (slot == null) {
+                continue;
+            }
+            if (level == 0) {
+                TaskEntry entry = (TaskEntry) slot;
+                boolean matches = entry.isDone() ? done
+                        : undone || (entry.getDeadlineMillis() != TaskEntry.NO_DEADLINE && entry.getDeadlineMillis() < expiredBefore);
+                if (matches && !action.test(entry)) {
+                    return false;
+                }
+            } else if (((Node) slot).contains(done, undone, expiredBefore)
+                    && !forEachMatching((Node) slot, level - BITS, fromId, bounded && i == start, done, undone, expiredBefore, action)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<Task> toList() {
+        List<Task> list = new ArrayList<>(size);
+        forEach(list::add);
+        return list;
+    }
+
+    @Override
+    public Iterator<Task> iterator() {
+        return new Iterator<>() {
+            private final Node[] nodes = new Node[shift / BITS + 1];
+            private final int[] positions = new int[shift / BITS + 1];
+            private int depth = 0;
+            private Task next;
+
+            {
+                nodes[0] = root;
+                advance();
+            }
+
+            private void advance() {
+                next = null;
+                while (depth >= 0) {
+                    Node node = nodes[depth];
+                    if (positions[depth] == WIDTH) {
+                        depth--;
+                        continue;
+                    }
+                    Object slot = node.slots[positions[depth]++];
+                    if (slot == null) {
+                        continue;
+                    }
+                    if (depth == nodes.length - 1) {
+                        next = ((TaskEntry) slot).toTask();
+                        return;
+                    }
+                    depth++;
+                    nodes[depth] = (Node) slot;
+                    positions[depth] = 0;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Task next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Task task = next;
+                advance();
+                return task;
+            }
+        };
+    }
+}
@@ -0,0 +1,278 @@
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+public class TaskStoreTester {
+    private static Random rnd = new Random();
+
+    private void check(TreeMap<Integer, Task> expected, TaskStore store) {
+        Assert.assertEquals(expected.size(), store.size());
+        Assert.assertEquals(expected.isEmpty() ? 0 : (int) expected.lastKey(), store.lastId());
+        Assert.assertEquals(new ArrayList<>(expected.values()), store.toList());
+
+        List<Task> iterated = new ArrayList<>();
+        store.iterator().forEachRemaining(iterated::add);
+        Assert.assertEquals(new ArrayList<>(expected.values()), iterated);
+    }
+
+    private void randomOperations(int idLimit, int opNumber) {
+        TreeMap<Integer, Task> expected = new TreeMap<>();
+        TaskStore store = new TaskStore();
+        for (int i = 0; i < opNumber; i++) {
+            int id = rnd.nextInt(idLimit);
+            switch (rnd.nextInt(3)) {
+                case 0:
+                    Task task = new Task(id);
+                    Assert.assertSame(expected.put(id, task), store.put(task));
+                    break;
+                case 1:
+                    Assert.assertSame(expected.remove(id), store.remove(id));
+                    break;
+                default:
+                    Assert.assertSame(expected.get(id), store.get(id));
+            }
+        }
+        check(expected, store);
+    }
+
+    @Test
+    public void denseIdsTest() {
+        int testNumber = 100;
+        while (testNumber-- > 0) {
+            randomOperations(100, 300);
+        }
+    }
+
+    @Test
+    public void sparseIdsTest() {
+        int testNumber = 100;
+        while (testNumber-- > 0) {
+            randomOperations(Integer.MAX_VALUE, 300);
+        }
+    }
+
+    @Test
+    public void snapshotTest() {
+        int testNumber = 100;
+        while (testNumber-- > 0) {
+            TreeMap<Integer, Task> expected = new TreeMap<>();
+            TaskStore store = new TaskStore();
+            List<TreeMap<Integer, Task>> expectedSnapshots = new ArrayList<>();
+            List<TaskStore> snapshots = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                int id = rnd.nextInt(200);
+                if (rnd.nextBoolean()) {
+                    Task task = new Task(id);
+                    expected.put(id, task);
+                    store.put(task);
+                } else {
+                    expected.remove(id);
+                    store.remove(id);
+                }
+                if (rnd.nextInt(50) == 0) {
+                    expectedSnapshots.add(new TreeMap<>(expected));
+                    snapshots.add(store.snapshot());
+                }
+            }
+            check(expected, store);
+            for (int i = 0; i < snapshots.size(); i++) {
+                check(expectedSnapshots.get(i), snapshots.get(i));
+            }
+        }
+    }
+
+    /* The ids are sparse at times, so that the root grows between the versions */
+    @Test
+    public void diffTest() {
+        int testNumber = 100;
+        while (testNumber-- > 0) {
+            final int idLimit = rnd.nextBoolean() ? 200 : Integer.MAX_VALUE;
+            TreeMap<Integer, Task> expected = new TreeMap<>();
+            TaskStore store = new TaskStore();
+            for (int i = 0; i < 300; i++) {
+                Task task = new Task(rnd.nextInt(200));
+                expected.put(task.getId(), task);
+                store.put(task);
+            }
+            TreeMap<Integer, Task> expectedVersion = new TreeMap<>(expected);
+            TaskStore version = store.snapshot();
+            final int changes = rnd.nextInt(50);
+            for (int i = 0; i < changes; i++) {
+                int id = rnd.nextInt(idLimit);
+                if (rnd.nextBoolean()) {
+                    Task task = new Task(id);
+                    expected.put(id, task);
+                    store.put(task);
+                } else {
+                    expected.remove(id);
+                    store.remove(id);
+                }
+            }
+
+            Set<Integer> changed = new HashSet<>(expected.keySet());
+            changed.addAll(expectedVersion.keySet());
+            changed.removeIf(id -> expected.get(id) == expectedVersion.get(id));
+            List<Integer> reported = new ArrayList<>();
+            store.diff(version, (entry, old) -> {
+                final int id = (entry != null ? entry : old).getId();
+                Assert.assertSame(expected.get(id), entry);
+                Assert.assertSame(expectedVersion.get(id), old);
+                reported.add(id);
+            });
+            List<Integer> sorted = new ArrayList<>(changed);
+            sorted.sort(Comparator.naturalOrder());
+            Assert.assertEquals(sorted, reported);
+
+            store.restore(version);
+            check(expectedVersion, store);
+            store.put(new Task(1000));
+            check(expectedVersion, version);
+        }
+    }
+
+    private Task randomTask(int id) {
+        Task task = new Task(id);
+        task.setDone(rnd.nextInt(3) == 0);
+        if (rnd.nextBoolean()) {
+            long day = 24L * 60 * 60 * 1000;
+            task.setDeadlineMillis(System.currentTimeMillis() + (rnd.nextBoolean() ? day : -day) * (1 + rnd.nextInt(100)));
+        }
+        return task;
+    }
+
+    private void checkMatching(TreeMap<Integer, Task> expected, TaskStore store) {
+        for (int flags = 0; flags < 8; flags++) {
+            final boolean done = (flags & 1) != 0, undone = (flags & 2) != 0, expired = (flags & 4) != 0;
+            List<TaskEntry> matching = new ArrayList<>();
+            for (Task task : expected.values()) {
+                if ((done && task.isDone()) || (undone && !task.isDone()) || (expired && !task.isDone() && task.isExpired())) {
+                    matching.add(task);
+                }
+            }
+            List<TaskEntry> visited = new ArrayList<>();
+            store.forEachMatching(done, undone, expired, visited::add);
+            Assert.assertEquals(matching, visited);
+        }
+    }
+
+    @Test
+    public void matchingTest() {
+        int testNumber = 100;
+        while (testNumber-- > 0) {
+            TreeMap<Integer, Task> expected = new TreeMap<>();
+            TaskStore store = new TaskStore();
+            TaskStore snapshot = null;
+            TreeMap<Integer, Task> expectedSnapshot = null;
+            final int idLimit = (rnd.nextBoolean() ? 100 : 100000);
+            for (int i = 0; i < 500; i++) {
+                int id = rnd.nextInt(idLimit);
+                switch (rnd.nextInt(4)) {
+                    case 0:
+                    case 1:
+                        Task task = randomTask(id);
+                        expected.put(id, task);
+                        store.put(task);
+                        break;
+                    case 2:
+                        expected.remove(id);
+                        store.remove(id);
+                        break;
+                    default:
+                        /* changed in place and put again, as the journal replay does */
+                        Task changed = expected.get(id);
+                        if (changed != null) {
+                            changed.setDone(!changed.isDone());
+                            store.put(changed);
+                        }
+                }
+                if (i == 250) {
+                    snapshot = store.snapshot();
+                    expectedSnapshot = new TreeMap<>(expected);
+                    /* the tasks of the snapshot must not be changed in place later */
+                    for (Task task : expectedSnapshot.values()) {
+                        Task copy = new Task(task);
+                        expected.put(copy.getId(), copy);
+                        store.put(copy);
+                    }
+                }
+            }
+            checkMatching(expected, store);
+            if (snapshot != null) {
+                checkMatching(expectedSnapshot, snapshot);
+            }
+        }
+    }
+
+    @Test
+    public void pagingTest() {
+        int testNumber = 50;
+        while (testNumber-- > 0) {
+            TaskStore store = new TaskStore();
+            final int idLimit = (rnd.nextBoolean() ? 300 : Integer.MAX_VALUE);
+            for (int i = 0; i < 200; i++) {
+                Task task = randomTask(rnd.nextInt(idLimit));
+                task.setTitle(rnd.nextInt(5) == 0 ? null : "title " + rnd.nextInt(20));
+                store.put(task);
+            }
+            Set<String> flags = new HashSet<>();
+            for (String flag : new String[]{"all", "done", "undone", "expired"}) {
+                if (rnd.nextInt(3) == 0) {
+                    flags.add(flag);
+                }
+            }
+            for (TaskQuery.Order order : TaskQuery.Order.values()) {
+                TaskQuery query = new TaskQuery(flags, order);
+                List<TaskEntry> all = new ArrayList<>();
+                for (Task task : store) {
+                    if (flags.isEmpty() || flags.contains("all") || (flags.contains("done") && task.isDone())
+                            || (flags.contains("undone") && !task.isDone()) || (flags.contains("expired") && task.isExpired() && !task.isDone())) {
+                        all.add(task);
+                    }
+                }
+                if (order == TaskQuery.Order.DEADLINE) {
+                    all.sort(Comparator.comparingLong((TaskEntry task) -> task.getDeadlineMillis() == TaskEntry.NO_DEADLINE
+                            ? Long.MAX_VALUE : task.getDeadlineMillis()));
+                } else if (order == TaskQuery.Order.TITLE) {
+                    all.sort(Comparator.comparing((TaskEntry task) -> task.toTask().getTitle(), Comparator.nullsFirst(Comparator.naturalOrder())));
+                }
+                Assert.assertEquals(order.name(), all, query.page(store, null, Integer.MAX_VALUE));
+
+                final int limit = 1 + rnd.nextInt(30);
+                List<TaskEntry> paged = new ArrayList<>();
+                TaskEntry last = null;
+                while (true) {
+                    List<TaskEntry> page = query.page(store, last, limit);
+                    Assert.assertTrue(page.size() <= limit);
+                    paged.addAll(page);
+                    if (page.size() < limit) {
+                        break;
+                    }
+                    last = page.get(page.size() - 1);
+                }
+                Assert.assertEquals(order.name(), all, paged);
+            }
+        }
+    }
+
+    @Test
+    public void removeAllTest() {
+        final int number = 100000;
+        TaskStore store = new TaskStore();
+        for (int id = 1; id <= number; id++) {
+            store.put(new Task(id));
+        }
+        Assert.assertEquals(number, store.lastId());
+        for (int id = number; id > 0; id--) {
+            Assert.assertEquals(id, store.remove(id).getId());
+            Assert.assertEquals(id - 1, store.lastId());
+        }
+        check(new TreeMap<>(), store);
+    }
+}
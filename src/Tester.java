@@ -1,6 +1,12 @@
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.security.SecureRandom;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -14,6 +20,8 @@ public class Tester {
     private static final String list3 = "todo-list.json3";
     private static final List<String> modifications = Arrays.asList("add", "remove", "done");
     private static final List<String> lists = Arrays.asList("all", "done", "undone", "expired");
+    private static final int CAPACITY = 100000;
+    private static final Config CONFIG = new Config(CAPACITY, Config.defaults().getMemory(), false);
 
     private String randomString(int len ){
         StringBuilder sb = new StringBuilder( len );
@@ -84,7 +92,7 @@ public class Tester {
             tasks.get(i).setId(i + 1);
         }
 
-        while (tasks.size() > TaskManager.MAX_TASKS_NUMBER) {
+        while (tasks.size() > CAPACITY) {
             tasks.remove(tasks.size() - 1);
         }
 
@@ -104,7 +112,11 @@ public class Tester {
     }
 
     private TaskManager initManager() {
-        TaskManager manager = new TaskManager();
+        return initManager(CONFIG);
+    }
+
+    private TaskManager initManager(Config config) {
+        TaskManager manager = new TaskManager(config);
         manager.processRequest("load " + list2 + " " + list3);
         return manager;
     }
@@ -130,7 +142,7 @@ public class Tester {
 
     @Test
     public void loadLargeTest() {
-        final int number = TaskManager.MAX_TASKS_NUMBER / 2;
+        final int number = CAPACITY / 2;
         List<Task> tasks = basicGeneration(number);
 
         TaskManager manager = initManager();
@@ -139,6 +151,49 @@ public class Tester {
 
     }
 
+    @Test
+    public void loadBrokenFileTest() throws IOException {
+        final String broken = "todo-list.json4";
+        final String brokenBinary = "todo-list" + BinaryUtills.EXTENSION;
+        List<Task> tasks = basicGeneration(100);
+        Files.writeString(Paths.get(broken), "[{\"id\": 1, \"title\": ");
+        /* the index and the last records are cut off */
+        BinaryUtills.store(generateTasks(100), brokenBinary);
+        byte[] binary = Files.readAllBytes(Paths.get(brokenBinary));
+        Files.write(Paths.get(brokenBinary), Arrays.copyOf(binary, binary.length / 2));
+
+        TaskManager manager = new TaskManager();
+        manager.processRequest("load " + list2 + " " + broken + " " + brokenBinary + " " + list3);
+
+        check(tasks, manager, new HashSet<>());
+    }
+
+    /* The ids kept from the list may reach the greatest int: then the new tasks are refused, not overflown */
+    @Test
+    public void lastIdTest() throws IOException {
+        basicGeneration(10);
+        List<Task> tasks = generateTasks(10);
+        final int left = randomInt(3);
+        for (int i = 0; i < tasks.size(); i++) {
+            tasks.get(i).setId(Integer.MAX_VALUE - left - tasks.size() + 1 + i);
+        }
+        JsonUtills.store(tasks, list1);
+        Files.deleteIfExists(Paths.get(list1 + TaskManager.JOURNAL_SUFFIX));
+        TaskManager manager = new TaskManager(CONFIG);
+        for (int i = 0; i < left; i++) {
+            Assert.assertEquals(Integer.MAX_VALUE - left + 1 + i, manager.add(" -t added"));
+        }
+        final String list = manager.list(new HashSet<>());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(-1, manager.add(" -t refused", new PrintStream(out)));
+        Assert.assertTrue(out.toString().contains("no more ids"));
+        out.reset();
+        manager.processRequest("load " + list2, new PrintStream(out));
+        Assert.assertTrue(out.toString().contains("no more ids"));
+        Assert.assertEquals(list, manager.list(new HashSet<>()));
+        manager.close();
+    }
+
     private int getAvailableId(List<Task> tasks) {
         return (tasks.isEmpty() ? 0 : tasks.get(tasks.size() - 1).getId()) + 1;
     }
@@ -219,4 +274,241 @@ public class Tester {
             check(tasks, manager, listOptions);
         }
     }
+
+    /* Applies random changes to a manager with the config and checks a random list */
+    private TaskManager modify(Config config) {
+        List<Task> tasks = basicGeneration(100);
+        Set<Integer> toRemove = new HashSet<>();
+        Set<Integer> wasDone = new HashSet<>();
+        TaskManager manager = initManager(config);
+        for (int i = 0; i < 50; i++) {
+            manager.processRequest(generateRequest(tasks, toRemove, wasDone));
+        }
+        manager.storeChanges(true);
+
+        tasks = tasks.stream()
+                .filter(task -> !toRemove.contains(task.getId()))
+                .collect(Collectors.toList());
+        tasks.forEach(task -> {
+            if (wasDone.contains(task.getId())) {
+                task.setDone(true);
+            }
+        });
+        check(tasks, manager, new HashSet<>(Collections.singleton(lists.get(randomInt(lists.size())))));
+        return manager;
+    }
+
+    /* The loaded tasks are kept in columns, the changed ones are replaced with tasks */
+    @Test
+    public void compactTest() {
+        int testNumber = 20;
+        while (testNumber-- > 0) {
+            modify(CONFIG.withCompact(true)).close();
+        }
+    }
+
+    /* Only 50 tasks may stay on the heap, the rest are spilled to the segments */
+    @Test
+    public void spillTest() {
+        final Config config = new Config(CAPACITY, 50L * Config.TASK_BYTES, false);
+        int testNumber = 20;
+        while (testNumber-- > 0) {
+            TaskManager manager = modify(config);
+            Assert.assertTrue(manager.heapTasks() <= config.getHeapTasks());
+            manager.close();
+        }
+    }
+
+    /* The snapshot is changed in place, so a change doesn't rewrite it */
+    @Test
+    public void slotsTest() {
+        final Config config = CONFIG.withSlots(true);
+        int testNumber = 20;
+        while (testNumber-- > 0) {
+            TaskManager manager = modify(config);
+            Assert.assertEquals(TaskFormat.SLOTS, TaskFormat.detect(list1));
+            final long snapshots = manager.getMetrics().getSnapshots();
+            manager.processRequest("done 1");
+            manager.processRequest("add -t added");
+            manager.processRequest("remove 2");
+            manager.storeChanges(true);
+            Assert.assertEquals(snapshots, manager.getMetrics().getSnapshots());
+            final String expected = manager.list(new HashSet<>());
+            manager.close();
+
+            TaskManager restored = new TaskManager(config);
+            Assert.assertEquals(expected, restored.list(new HashSet<>()));
+            restored.close();
+        }
+        /* the list leaves the slots with the next snapshot */
+        TaskManager manager = new TaskManager(CONFIG);
+        manager.storeChanges(true);
+        Assert.assertEquals(TaskFormat.JSON, TaskFormat.detect(list1));
+        manager.close();
+    }
+
+    /* A slots file which can't be read is moved aside rather than replaced by the empty list */
+    @Test
+    public void brokenSlotsTest() throws IOException {
+        final Config config = CONFIG.withSlots(true);
+        TaskManager manager = modify(config);
+        manager.close();
+        /* the length of the title of the first task runs past its slots */
+        byte[] broken = Files.readAllBytes(Paths.get(list1));
+        java.nio.ByteBuffer.wrap(broken).putInt(SlotFile.SLOT_SIZE + 24, Integer.MAX_VALUE);
+        Files.write(Paths.get(list1), broken);
+
+        TaskManager restored = new TaskManager(config);
+        restored.storeChanges(true);
+        Assert.assertEquals("", restored.list(new HashSet<>()));
+        Assert.assertArrayEquals(broken, Files.readAllBytes(Paths.get(list1 + Persister.BROKEN_SUFFIX)));
+        Assert.assertEquals(TaskFormat.SLOTS, TaskFormat.detect(list1));
+        restored.close();
+        Files.delete(Paths.get(list1 + Persister.BROKEN_SUFFIX));
+    }
+
+    /* Adds, removes or marks as done a task which exists, so that every call changes the list */
+    private void change(TaskManager manager, List<Integer> ids, PrintStream out) {
+        final int op = (ids.isEmpty() ? 0 : randomInt(3));
+        if (op == 0) {
+            ids.add(manager.add("-t " + randomString(10) + " -dt " + randomString(randomInt(100)) + " -dl " + randomDate(), out));
+        } else if (op == 1) {
+            manager.remove(ids.remove(randomInt(ids.size())), out);
+        } else {
+            manager.markAsDone(ids.get(randomInt(ids.size())), out);
+        }
+    }
+
+    private List<Integer> ids(TaskManager manager) {
+        List<Integer> ids = new ArrayList<>();
+        manager.cursor(new HashSet<>(), TaskQuery.Order.ID).next(Integer.MAX_VALUE).forEach(task -> ids.add(task.getId()));
+        return ids;
+    }
+
+    /* Every change is undone back to the loaded list, then redone, and the result survives a restart */
+    @Test
+    public void undoTest() {
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+        int testNumber = 20;
+        while (testNumber-- > 0) {
+            final Config config = CONFIG.withSlots(rnd.nextBoolean());
+            basicGeneration(50);
+            TaskManager manager = initManager(config);
+            List<Integer> ids = ids(manager);
+            List<String> versions = new ArrayList<>();
+            final int steps = 1 + randomInt(30);
+            for (int i = 0; i < steps; i++) {
+                versions.add(manager.list(new HashSet<>()));
+                change(manager, ids, nowhere);
+            }
+            final String last = manager.list(new HashSet<>());
+            for (int i = steps - 1; i >= 0; i--) {
+                manager.undo(nowhere);
+                Assert.assertEquals(versions.get(i), manager.list(new HashSet<>()));
+            }
+            for (int i = 0; i < steps; i++) {
+                manager.redo(nowhere);
+            }
+            Assert.assertEquals(last, manager.list(new HashSet<>()));
+            manager.undo(nowhere);
+            manager.storeChanges(true);
+            manager.close();
+
+            TaskManager restored = new TaskManager(config);
+            Assert.assertEquals(versions.get(steps - 1), restored.list(new HashSet<>()));
+            restored.close();
+        }
+    }
+
+    /* The lists don't see a transaction until it is committed, and the rollback discards it */
+    @Test
+    public void transactionTest() {
+        PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+        int testNumber = 20;
+        while (testNumber-- > 0) {
+            final Config config = CONFIG.withSlots(rnd.nextBoolean());
+            basicGeneration(50);
+            TaskManager manager = initManager(config);
+            List<Integer> ids = ids(manager);
+            final String before = manager.list(new HashSet<>());
+
+            manager.processRequest("begin", nowhere);
+            for (int i = 0; i < 1 + randomInt(30); i++) {
+                change(manager, ids, nowhere);
+            }
+            Assert.assertEquals(before, manager.list(new HashSet<>()));
+            manager.processRequest("rollback", nowhere);
+            Assert.assertEquals(before, manager.list(new HashSet<>()));
+
+            ids = ids(manager);
+            /* the list which the step before the transaction is undone to, that is the one before the load */
+            manager.processRequest("undo", nowhere);
+            final String previous = manager.list(new HashSet<>());
+            manager.processRequest("redo", nowhere);
+            Assert.assertEquals(before, manager.list(new HashSet<>()));
+
+            manager.processRequest("begin", nowhere);
+            for (int i = 0; i < 1 + randomInt(30); i++) {
+                change(manager, ids, nowhere);
+            }
+            ByteArrayOutputStream commit = new ByteArrayOutputStream();
+            manager.processRequest("commit", new PrintStream(commit));
+            final String committed = manager.list(new HashSet<>());
+            /* the transaction is undone as a whole, but the one which changed nothing is not a step to undo:
+               the undo goes past it to the step before
+             */
+            final boolean empty = commit.toString().contains("with 0 changed tasks");
+            Assert.assertEquals(empty, committed.equals(before));
+            manager.processRequest("undo", nowhere);
+            Assert.assertEquals(empty ? previous : before, manager.list(new HashSet<>()));
+            manager.processRequest("redo", nowhere);
+            Assert.assertEquals(committed, manager.list(new HashSet<>()));
+            manager.close();
+
+            TaskManager restored = new TaskManager(config);
+            Assert.assertEquals(committed, restored.list(new HashSet<>()));
+            restored.close();
+        }
+    }
+
+    @Test
+    public void batchTest() throws IOException {
+        final String batch = "todo-list.batch";
+        int testNumber = 20;
+
+        final int size = 100;
+        final int opNumber = 200;
+
+        while (testNumber-- > 0) {
+            List<Task> tasks = basicGeneration(size);
+            Set<Integer> toRemove = new HashSet<>();
+            Set<Integer> wasDone = new HashSet<>();
+            TaskManager manager = initManager();
+            List<String> requests = new ArrayList<>();
+            for (int i = 0; i < opNumber; i++) {
+                requests.add(generateRequest(tasks, toRemove, wasDone));
+            }
+            requests.add("list all");
+            Files.write(Paths.get(batch), requests);
+            manager.processRequest("batch " + batch);
+
+            tasks = tasks.stream()
+                    .filter(task -> !toRemove.contains(task.getId()))
+                    .collect(Collectors.toList());
+
+            tasks.forEach(task -> {
+                if (wasDone.contains(task.getId())) {
+                    task.setDone(true);
+                }
+            });
+
+            check(tasks, manager, new HashSet<>());
+            manager.close();
+
+            /* the batch was saved as a whole */
+            TaskManager restored = new TaskManager();
+            check(tasks, restored, new HashSet<>());
+            restored.close();
+        }
+    }
 }